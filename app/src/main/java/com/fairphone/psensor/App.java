@@ -1,14 +1,74 @@
 package com.fairphone.psensor;
 
 import android.app.Application;
+import android.content.Context;
+import android.text.TextUtils;
 
 import com.fairphone.psensor.notifications.NotificationUtils;
+import com.fairphone.psensor.sensor.SensorSource;
+import com.fairphone.psensor.sensor.SensorSources;
+import com.fairphone.psensor.workers.WorkerUtils;
+
+import java.io.File;
 
 public class App extends Application {
 
+    private SensorSource mSensorSource;
+    private ProximitySensorDriver mSensorDriver;
+
     @Override
     public void onCreate() {
         super.onCreate();
         NotificationUtils.createNotificationChannel(this);
+        /* Also covers a fresh install or update, which the boot completed broadcast does not. */
+        WorkerUtils.scheduleCalibrationHistoryCompaction(this);
+        mSensorSource = SensorSources.createDefault(this);
+
+        final String driverDirectory = getString(R.string.config_proximity_sensor_driver_directory);
+        if (!TextUtils.isEmpty(driverDirectory)) {
+            mSensorDriver = new ProximitySensorDriver(new File(driverDirectory));
+        }
+    }
+
+    /**
+     * @param context Any context of the app.
+     * @return The source of raw proximity sensor samples used by the app.
+     */
+    public static SensorSource getSensorSource(Context context) {
+        return ((App) context.getApplicationContext()).mSensorSource;
+    }
+
+    /**
+     * Replace the source of raw proximity sensor samples used by the app, e.g. with a cheaper source for the device.
+     *
+     * @param context Any context of the app.
+     * @param sensorSource The new source.
+     */
+    public static void setSensorSource(Context context, SensorSource sensorSource) {
+        final App app = (App) context.getApplicationContext();
+
+        if (app.mSensorSource != sensorSource) {
+            app.mSensorSource.release();
+            app.mSensorSource = sensorSource;
+        }
+    }
+
+    /**
+     * @param context Any context of the app.
+     * @return The driver to apply a calibration to without a reboot, or <code>null</code> if it is not configurable
+     * on this device.
+     */
+    public static ProximitySensorDriver getSensorDriver(Context context) {
+        return ((App) context.getApplicationContext()).mSensorDriver;
+    }
+
+    /**
+     * Replace the driver to apply a calibration to, e.g. with one backed by a fake directory.
+     *
+     * @param context Any context of the app.
+     * @param sensorDriver The new driver or <code>null</code> to always require a reboot.
+     */
+    public static void setSensorDriver(Context context, ProximitySensorDriver sensorDriver) {
+        ((App) context.getApplicationContext()).mSensorDriver = sensorDriver;
     }
 }
@@ -3,12 +3,10 @@ package com.fairphone.psensor;
 import android.app.Activity;
 import android.app.DialogFragment;
 import android.content.ComponentName;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.database.sqlite.SQLiteDatabase;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.PowerManager;
@@ -19,12 +17,18 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.ViewFlipper;
 
-import com.fairphone.psensor.CalibrationContract.CalibrationData;
 import com.fairphone.psensor.fragments.IncompatibleDeviceDialog;
 import com.fairphone.psensor.helpers.CalibrationStatusHelper;
 import com.fairphone.psensor.helpers.ProximitySensorHelper;
+import com.fairphone.psensor.sensor.AsyncSensorReader;
+import com.fairphone.psensor.sensor.PackedSamples;
+import com.fairphone.psensor.sensor.SampleStatistics;
+import com.fairphone.psensor.sensor.SensorSource;
 
+import java.io.File;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Activity to start the calibration process.<br>
@@ -37,23 +41,9 @@ import java.util.Locale;
  * memory.</li>
  * </ol>
  * <br>
- * The offset compensation is -was- 0 out of factory and could cause issues because certain devices require a higher
- * compensation.<br>
- * <br>
- * The dynamic offset compensation is computed from the non-blocked value read at step 2.<br>
- * The rules and heuristic are as follow:
- * <ol>
- * <li>The read value is reduced by approx. 32 (sensor units) for each offset compensation increment (from the
- * specification).</li>
- * <li>According to the vendor, the value read must be above 0 when non-blocked and as close to is as possible, we
- * use the integer part of <code>floor("value read"/32)</code> value and decrement it by 1..</li>
- * <li>By doing so, we take into consideration the current state that might be (and likely is) not perfectly clean.
- * A cleaner state will result in lower values read, and we do not wish to have values &lt; 0 read. The non-blocked
- * value then belongs to [32;63] in the current conditions.</li>
- * <li>If the value read is already 0, we lower the persisted offset by 2 to reach a similar non-blocked range than
- * above.</li>
- * <li>The proximity sensor offset compensation belongs to [{@link ProximitySensorConfiguration#MIN_OFFSET_COMPENSATION}, {@link ProximitySensorConfiguration#MAX_OFFSET_COMPENSATION}].</li>
- * </ol>
+ * The new calibration is computed by {@link CalibrationEngine}. When the running driver can be configured (see
+ * {@link App#getSensorDriver(Context)}), the calibration is also applied to it and confirmed with a new non-blocked
+ * reading, so that no reboot is needed; otherwise, or if that fails, the calibration takes effect at the next reboot.
  */
 public class CalibrationActivity extends Activity implements IncompatibleDeviceDialog.IncompatibleDeviceDialogListener {
     private static final String TAG = CalibrationActivity.class.getSimpleName();
@@ -64,14 +54,6 @@ public class CalibrationActivity extends Activity implements IncompatibleDeviceD
     private static final int STEP_ERROR = 2;
     private static final int STEP_OK = 3;
 
-    /**
-     * Value to compute the near threshold from the blocked value (in sensor units).
-     */
-    public static final int NEAR_THRESHOLD_FROM_BLOCKED_VALUE = 30;
-    /**
-     * Value to compute the far threshold from the near threshold (in sensor units).
-     */
-    public static final int FAR_THRESHOLD_FROM_NEAR_THRESHOLD = 30;
     /**
      * Minimal accepted value for the blocked value (in sensor units).
      */
@@ -85,13 +67,31 @@ public class CalibrationActivity extends Activity implements IncompatibleDeviceD
      */
     public static final int CALIBRATION_DELAY_MS = 3000;
 
+    /**
+     * Result of the persist task: the calibration is persisted and already in effect.
+     */
+    private static final int PERSISTED_IN_EFFECT = 0;
+    /**
+     * Result of the persist task: the calibration is persisted and pending until it is applied or the device reboots.
+     */
+    private static final int PERSISTED_PENDING = 1;
+
     private boolean mAbortActivity;
 
+    private SensorSource mSensorSource;
+
     private ProximitySensorConfiguration mPersistedConfiguration;
     private ProximitySensorConfiguration mCalibratedConfiguration;
+    /**
+     * How {@link #mCalibratedConfiguration} was computed, <code>null</code> until it is.
+     */
+    private CalibrationEngine.Result mCalibrationResult;
 
     private int mBlockedValue;
-    private int mNonBlockedValue;
+
+    private final SampleStatistics mBlockedStatistics = new SampleStatistics(ProximitySensorHelper.ADAPTIVE_READ_MAX_N_TIMES);
+    private final SampleStatistics mNonBlockedStatistics = new SampleStatistics(ProximitySensorHelper.ADAPTIVE_READ_MAX_N_TIMES);
+    private final SampleStatistics mConfirmationStatistics = new SampleStatistics(ProximitySensorHelper.ADAPTIVE_READ_MAX_N_TIMES);
 
     private Handler mHandler;
 
@@ -100,6 +100,43 @@ public class CalibrationActivity extends Activity implements IncompatibleDeviceD
     private View mViewStep2;
     private View mViewStep3;
 
+    private AsyncSensorReader.Request mPendingRead;
+    /**
+     * The persist in progress, not cancelled when pausing: a write to the persistent memory is always completed.
+     */
+    private AsyncSensorReader.Request mPendingPersist;
+
+    private final Runnable mShowCalibrationSuccess = new Runnable() {
+        @Override
+        public void run() {
+            updateCalibrationStepView(mViewStep3, STEP_CURRENT, R.string.msg_calibration_success);
+            mFlipper.setDisplayedChild(2);
+        }
+    };
+
+    private final Runnable mShowCalibrationApplied = new Runnable() {
+        @Override
+        public void run() {
+            updateCalibrationStepView(mViewStep3, STEP_CURRENT, R.string.msg_calibration_applied, -1, actionFinish, R.string.OK);
+            mFlipper.setDisplayedChild(2);
+        }
+    };
+
+    private final Runnable mShowCalibrationUnchanged = new Runnable() {
+        @Override
+        public void run() {
+            updateCalibrationStepView(mViewStep3, STEP_CURRENT, R.string.msg_calibration_unchanged, -1, actionFinish, R.string.OK);
+            mFlipper.setDisplayedChild(2);
+        }
+    };
+
+    private final View.OnClickListener actionFinish = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            finish();
+        }
+    };
+
     private final View.OnClickListener actionReboot = new View.OnClickListener() {
         @Override
         public void onClick(View v) {
@@ -114,15 +151,16 @@ public class CalibrationActivity extends Activity implements IncompatibleDeviceD
         super.onCreate(savedInstanceState);
 
         mHandler = new Handler();
+        mSensorSource = App.getSensorSource(this);
 
         setContentView(R.layout.activity_calibration);
 
-        if (!ProximitySensorHelper.canReadProximitySensorValue()) {
+        if (!mSensorSource.isAvailable()) {
             Log.w(TAG, "Proximity sensor value not read-able, aborting.");
 
             mAbortActivity = true;
             showIncompatibleDeviceDialog();
-        } else if (!ProximitySensorConfiguration.canReadFromAndPersistToMemory()) {
+        } else if (!ProximitySensorConfigurationCache.canReadFromAndPersistToMemory()) {
             Log.w(TAG, "Proximity sensor configuration not accessible (R/W), aborting.");
 
             mAbortActivity = true;
@@ -141,6 +179,11 @@ public class CalibrationActivity extends Activity implements IncompatibleDeviceD
             return;
         }
 
+        if (mPendingPersist != null) {
+            /* The steps are updated once the persist completes */
+            return;
+        }
+
         if (CalibrationStatusHelper.isCalibrationPending(this)) {
             updateCalibrationStepView(mViewStep3, STEP_CURRENT, R.string.step_3, R.string.msg_calibration_success, -1, actionReboot, R.string.reboot);
             if (mFlipper.getDisplayedChild() != 2) {
@@ -167,8 +210,9 @@ public class CalibrationActivity extends Activity implements IncompatibleDeviceD
     }
 
     private void reset() {
-        mPersistedConfiguration = ProximitySensorConfiguration.readFromMemory();
+        mPersistedConfiguration = ProximitySensorConfigurationCache.readFromMemory();
         mCalibratedConfiguration = new ProximitySensorConfiguration();
+        mCalibrationResult = null;
 
         updateCalibrationStepView(mViewStep1, STEP_CURRENT, R.string.step_1, R.string.msg_block, -1, new View.OnClickListener() {
             @Override
@@ -265,21 +309,20 @@ public class CalibrationActivity extends Activity implements IncompatibleDeviceD
     private void doReadBlockedValue() {
         updateCalibrationStepView(mViewStep1, STEP_IN_PROGRESS, R.string.msg_reading);
 
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                final int value = ProximitySensorHelper.read(BLOCKED_MINIMAL_VALUE, ProximitySensorHelper.READ_MAX_LIMIT);
-
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        Log.d(TAG, "    blocked value = " + String.format(Locale.ENGLISH, "%3d", value));
+        try {
+            mPendingRead = AsyncSensorReader.readAdaptive(mSensorSource, BLOCKED_MINIMAL_VALUE, ProximitySensorHelper.READ_MAX_LIMIT, mBlockedStatistics, mHandler, new AsyncSensorReader.Callback() {
+                @Override
+                public void onRead(int value) {
+                    Log.d(TAG, "    blocked value = " + String.format(Locale.ENGLISH, "%3d", value));
 
-                        doSaveBlockedValue(value);
-                    }
-                });
-            }
-        }).start();
+                    mPendingRead = null;
+                    doSaveBlockedValue(value);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Could not read the blocked value", e);
+            doSaveBlockedValue(-1);
+        }
     }
 
     private void doSaveBlockedValue(int value) {
@@ -297,26 +340,24 @@ public class CalibrationActivity extends Activity implements IncompatibleDeviceD
     private void doReadNonBlockedValue() {
         updateCalibrationStepView(mViewStep2, STEP_IN_PROGRESS, R.string.msg_reading);
 
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                final int value = ProximitySensorHelper.read(ProximitySensorHelper.READ_MIN_LIMIT, (mBlockedValue - NON_BLOCKED_MAXIMAL_VALUE_FROM_BLOCKED_VALUE));
-
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        Log.d(TAG, "non-blocked value = " + String.format(Locale.ENGLISH, "%3d", value));
+        try {
+            mPendingRead = AsyncSensorReader.readAdaptive(mSensorSource, ProximitySensorHelper.READ_MIN_LIMIT, (mBlockedValue - NON_BLOCKED_MAXIMAL_VALUE_FROM_BLOCKED_VALUE), mNonBlockedStatistics, mHandler, new AsyncSensorReader.Callback() {
+                @Override
+                public void onRead(int value) {
+                    Log.d(TAG, "non-blocked value = " + String.format(Locale.ENGLISH, "%3d", value));
 
-                        doSaveNonBlockedValue(value);
-                    }
-                });
-            }
-        }).start();
+                    mPendingRead = null;
+                    doSaveNonBlockedValue(value);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Could not read the non-blocked value", e);
+            doSaveNonBlockedValue(-1);
+        }
     }
 
     private void doSaveNonBlockedValue(int value) {
         if (value >= 0) {
-            mNonBlockedValue = value;
 
             updateCalibrationStepView(mViewStep2, STEP_OK, R.string.msg_step_success);
             mFlipper.setDisplayedChild(2);
@@ -331,41 +372,155 @@ public class CalibrationActivity extends Activity implements IncompatibleDeviceD
     public void doCalibrate() {
         updateCalibrationStepView(mViewStep3, STEP_IN_PROGRESS, R.string.msg_cal);
 
-        mCalibratedConfiguration.nearThreshold = mBlockedValue - NEAR_THRESHOLD_FROM_BLOCKED_VALUE;
-        mCalibratedConfiguration.farThreshold = mCalibratedConfiguration.nearThreshold - FAR_THRESHOLD_FROM_NEAR_THRESHOLD;
+        Log.d(TAG, "    blocked statistics = " + mBlockedStatistics);
+        Log.d(TAG, "non-blocked statistics = " + mNonBlockedStatistics);
+
+        final CalibrationEngine.Result result = CalibrationEngine.calibrate(mBlockedStatistics, mNonBlockedStatistics, mPersistedConfiguration);
+        mCalibratedConfiguration = result.configuration;
+        mCalibrationResult = result;
+        Log.d(TAG, "New calibration: " + result);
 
-        if (mNonBlockedValue == 0) {
-            mCalibratedConfiguration.offsetCompensation = Math.min(Math.max(mPersistedConfiguration.offsetCompensation - 2, ProximitySensorConfiguration.MIN_OFFSET_COMPENSATION), ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION);
-            Log.d(TAG, "New offset based on current offset only");
+        final ProximitySensorDriver driver = App.getSensorDriver(this);
+        if (driver != null && driver.isAvailable()) {
+            doSearchOffsetCompensation(driver);
         } else {
-            mCalibratedConfiguration.offsetCompensation = Math.min(Math.max(mPersistedConfiguration.offsetCompensation + (int)Math.floor(mNonBlockedValue / 32) - 1, ProximitySensorConfiguration.MIN_OFFSET_COMPENSATION), ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION);
-            Log.d(TAG, "New offset based on unblock value and current offset");
+            doPersistCalibration();
         }
+    }
 
-        if (mCalibratedConfiguration.persistToMemory()) {
-            storeCalibrationData();
-            CalibrationStatusHelper.setCalibrationSuccessful(this);
+    /**
+     * Search for the offset compensation in closed loop on the running driver (see
+     * {@link CalibrationEngine#calibrate(int, ProximitySensorConfiguration, CalibrationEngine.OffsetProbe)}), then
+     * persist the calibration. <br>
+     * <br>
+     * The driver is restored once the search is over. If the search fails, the offset compensation computed from the
+     * non-blocked value is kept, otherwise the search result replaces {@link #mCalibrationResult}.
+     *
+     * @param driver The driver to apply the offset compensations to.
+     */
+    private void doSearchOffsetCompensation(final ProximitySensorDriver driver) {
+        final int blockedValue = mBlockedStatistics.getRoundedMean();
+        /* Written by the search, read once its result is delivered */
+        final CalibrationEngine.Result[] searchResult = new CalibrationEngine.Result[1];
 
-            // wait a bit because the calibration is otherwise too fast
-            new Thread(new Runnable() {
+        try {
+            mPendingRead = AsyncSensorReader.submit(new Callable<Integer>() {
                 @Override
-                public void run() {
+                public Integer call() {
+                    final ProximitySensorConfiguration runningConfiguration = driver.read();
+                    if (runningConfiguration == null) {
+                        return -1;
+                    }
+
+                    final CalibrationEngine.Result result;
                     try {
-                        Thread.sleep(CALIBRATION_DELAY_MS);
-                    } catch (InterruptedException e) {
-                        // Log but ignore interruption.
-                        Log.e(TAG, e.getMessage());
+                        result = CalibrationEngine.calibrate(blockedValue, mPersistedConfiguration, new CalibrationEngine.OffsetProbe() {
+                            @Override
+                            public int measureNonBlockedValue(int offsetCompensation) {
+                                final ProximitySensorConfiguration probedConfiguration = new ProximitySensorConfiguration(runningConfiguration);
+                                probedConfiguration.offsetCompensation = offsetCompensation;
+
+                                if (Thread.currentThread().isInterrupted() || !driver.apply(probedConfiguration)) {
+                                    return -1;
+                                }
+
+                                final int value = ProximitySensorHelper.readAdaptive(mSensorSource, ProximitySensorHelper.READ_MIN_LIMIT, ProximitySensorHelper.READ_MAX_LIMIT, mConfirmationStatistics);
+                                Log.d(TAG, "offset " + String.format(Locale.ENGLISH, "%2d", offsetCompensation) + ": non-blocked value = " + value);
+
+                                return value;
+                            }
+                        });
+                    } finally {
+                        driver.apply(runningConfiguration);
                     }
 
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            updateCalibrationStepView(mViewStep3, STEP_CURRENT, R.string.msg_calibration_success);
-                            mFlipper.setDisplayedChild(2);
-                        }
-                    });
+                    if (result == null) {
+                        Log.w(TAG, "Offset compensation search failed");
+                        return -1;
+                    }
+
+                    Log.d(TAG, "Searched calibration: " + result);
+                    searchResult[0] = result;
+                    return result.configuration.offsetCompensation;
+                }
+            }, mHandler, new AsyncSensorReader.Callback() {
+                @Override
+                public void onRead(int value) {
+                    mPendingRead = null;
+
+                    if (value >= 0) {
+                        mCalibratedConfiguration.offsetCompensation = value;
+                        mCalibrationResult = searchResult[0];
+                    }
+                    doPersistCalibration();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Could not search for the offset compensation", e);
+            doPersistCalibration();
+        }
+    }
+
+    /**
+     * Persist the calibration on the sampling thread, record it and the calibration state, then confirm it. <br>
+     * <br>
+     * The persist syncs the persistent memory and reads the calibration back, which may block for long.
+     */
+    private void doPersistCalibration() {
+        final ProximitySensorConfiguration persistedConfiguration = mPersistedConfiguration;
+        final ProximitySensorConfiguration calibratedConfiguration = mCalibratedConfiguration;
+        final byte[] rawSamples = packRawSamples();
+        final File shadowFile = Utils.getCalibrationShadowFile(this);
+
+        try {
+            mPendingPersist = AsyncSensorReader.submitUninterruptible(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    final int changedFields = calibratedConfiguration.persistChangesToMemory(shadowFile);
+
+                    if (changedFields == ProximitySensorConfiguration.PERSIST_FAILED) {
+                        return -1;
+                    }
+
+                    storeCalibrationData(persistedConfiguration, calibratedConfiguration, rawSamples);
+
+                    if (changedFields == 0 && isCalibrationInEffect(calibratedConfiguration)) {
+                        /* Nothing was written, the sensor already runs with this configuration: no reboot is needed. */
+                        CalibrationStatusHelper.setCalibrationSuccessfulAndCompleted(CalibrationActivity.this);
+                        return PERSISTED_IN_EFFECT;
+                    }
+
+                    CalibrationStatusHelper.setCalibrationSuccessful(CalibrationActivity.this);
+                    return PERSISTED_PENDING;
+                }
+            }, mHandler, new AsyncSensorReader.Callback() {
+                @Override
+                public void onRead(int value) {
+                    mPendingPersist = null;
+                    onCalibrationPersisted(value);
                 }
-            }).start();
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Could not persist the calibration", e);
+            onCalibrationPersisted(-1);
+        }
+    }
+
+    /**
+     * @param result The result of the persist task, {@link #PERSISTED_IN_EFFECT}, {@link #PERSISTED_PENDING} or
+     * <code>-1</code> if the calibration could not be persisted.
+     */
+    private void onCalibrationPersisted(int result) {
+        if (result == PERSISTED_IN_EFFECT) {
+            mHandler.postDelayed(mShowCalibrationUnchanged, CALIBRATION_DELAY_MS);
+        } else if (result == PERSISTED_PENDING) {
+            final ProximitySensorDriver driver = App.getSensorDriver(this);
+            if (driver != null && driver.isAvailable()) {
+                doApplyCalibration(driver);
+            } else {
+                // wait a bit because the calibration is otherwise too fast
+                mHandler.postDelayed(mShowCalibrationSuccess, CALIBRATION_DELAY_MS);
+            }
         } else {
             updateCalibrationStepView(mViewStep3, STEP_ERROR, R.string.msg_cal, R.string.msg_fail_write_sns, new View.OnClickListener() {
                 @Override
@@ -375,30 +530,130 @@ public class CalibrationActivity extends Activity implements IncompatibleDeviceD
                 }
             }, R.string.go_to_updater);
         }
+    }
+
+    /**
+     * Determine whether the sensor already runs with the calibrated configuration, once it is found persisted
+     * unchanged. <br>
+     * <br>
+     * The running driver tells when it can be read. Otherwise, the persisted configuration is assumed to be in effect
+     * unless an earlier calibration still waits for a reboot; a persisted configuration changed outside of the app
+     * cannot be told apart then.
+     *
+     * @param calibratedConfiguration The calibrated configuration.
+     * @return <code>true</code> if the calibrated configuration is in effect, <code>false</code> if not or if unknown.
+     */
+    private boolean isCalibrationInEffect(ProximitySensorConfiguration calibratedConfiguration) {
+        final ProximitySensorDriver driver = App.getSensorDriver(this);
+
+        if (driver != null && driver.isAvailable()) {
+            return driver.isRunning(calibratedConfiguration);
+        }
+        return !CalibrationStatusHelper.isCalibrationPending(this);
+    }
 
+    /**
+     * Apply the persisted calibration to the running driver and confirm it with a new non-blocked reading, in which
+     * case the calibration is completed without a reboot. <br>
+     * <br>
+     * If the calibration cannot be applied or confirmed (see
+     * {@link CalibrationEngine#isConfirmedByNonBlockedValue(int, CalibrationEngine.Result)}), the driver is restored
+     * and the reboot is asked for.
+     *
+     * @param driver The driver to apply the calibration to.
+     */
+    private void doApplyCalibration(final ProximitySensorDriver driver) {
+        final ProximitySensorConfiguration calibratedConfiguration = mCalibratedConfiguration;
+        final CalibrationEngine.Result calibrationResult = mCalibrationResult;
+
+        try {
+            mPendingRead = AsyncSensorReader.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return driver.applyAndConfirm(calibratedConfiguration, new ProximitySensorDriver.Confirmation() {
+                        @Override
+                        public int confirm(ProximitySensorConfiguration configuration) {
+                            final int value = ProximitySensorHelper.readAdaptive(mSensorSource, ProximitySensorHelper.READ_MIN_LIMIT, ProximitySensorHelper.READ_MAX_LIMIT, mConfirmationStatistics);
+
+                            if (!CalibrationEngine.isConfirmedByNonBlockedValue(value, calibrationResult)) {
+                                Log.w(TAG, "Calibration not confirmed by the non-blocked value " + value + ", reboot needed");
+                                return -1;
+                            }
+                            return value;
+                        }
+                    });
+                }
+            }, mHandler, new AsyncSensorReader.Callback() {
+                @Override
+                public void onRead(int value) {
+                    mPendingRead = null;
+
+                    if (value >= 0) {
+                        Log.d(TAG, "Calibration applied, non-blocked value = " + value);
+
+                        CalibrationStatusHelper.setCalibrationSuccessfulAndCompleted(CalibrationActivity.this);
+                        mShowCalibrationApplied.run();
+                    } else {
+                        mShowCalibrationSuccess.run();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Could not apply the calibration, reboot needed", e);
+            mShowCalibrationSuccess.run();
+        }
     }
 
     @Override
     protected void onPause() {
+        cancelPendingOperations();
         Utils.handleCheckCalibrationPending(this);
         super.onPause();
     }
 
-    private void storeCalibrationData() {
-        CalibrationDbHelper mDbHelper = new CalibrationDbHelper(this);
+    @Override
+    protected void onDestroy() {
+        cancelPendingOperations();
+        if (mPendingPersist != null) {
+            /* The persist completes and records the calibration state, only its feedback is dropped */
+            mPendingPersist.cancel();
+            mPendingPersist = null;
+        }
+        mSensorSource.release();
+        super.onDestroy();
+    }
+
+    /**
+     * Cancel the reading in progress and the delayed calibration feedback, if any. <br>
+     * <br>
+     * The steps are reset (or the calibration success shown) by {@link #onResume()}.
+     */
+    private void cancelPendingOperations() {
+        if (mPendingRead != null) {
+            mPendingRead.cancel();
+            mPendingRead = null;
+        }
 
-        // Gets the data repository in write mode
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        mHandler.removeCallbacks(mShowCalibrationSuccess);
+        mHandler.removeCallbacks(mShowCalibrationUnchanged);
+        mHandler.removeCallbacks(mShowCalibrationApplied);
+    }
 
-        // Create a new map of values, where column names are the keys
-        ContentValues values = new ContentValues();
-        values.put(CalibrationData.COLUMN_NAME_PREVIOUS_NEAR, mPersistedConfiguration.nearThreshold);
-        values.put(CalibrationData.COLUMN_NAME_PREVIOUS_FAR, mPersistedConfiguration.farThreshold);
-        values.put(CalibrationData.COLUMN_NAME_PREVIOUS_OFFSET, mPersistedConfiguration.offsetCompensation);
-        values.put(CalibrationData.COLUMN_NAME_NEAR, mCalibratedConfiguration.nearThreshold);
-        values.put(CalibrationData.COLUMN_NAME_FAR, mCalibratedConfiguration.farThreshold);
-        values.put(CalibrationData.COLUMN_NAME_OFFSET, mCalibratedConfiguration.offsetCompensation);
+    /**
+     * @return The blocked and non-blocked samples packed for the calibration database or <code>null</code> if they
+     * could not be packed.
+     */
+    private byte[] packRawSamples() {
+        try {
+            return PackedSamples.pack(mBlockedStatistics, mNonBlockedStatistics);
+        } catch (IllegalArgumentException e) {
+            Log.wtf(TAG, e);
+            return null;
+        }
+    }
 
+    private void storeCalibrationData(ProximitySensorConfiguration persistedConfiguration,
+                                      ProximitySensorConfiguration calibratedConfiguration, byte[] rawSamples) {
         PackageInfo pInfo = null;
         try {
             pInfo = getPackageManager().getPackageInfo(getPackageName(), 0);
@@ -409,13 +664,17 @@ public class CalibrationActivity extends Activity implements IncompatibleDeviceD
         if (pInfo == null) {
             Log.wtf(TAG, "Could not retrieve PackageInfo instance.");
         } else {
-            int verCode = pInfo.versionCode;
-            values.put(CalibrationData.COLUMN_NAME_APP_VERSION, verCode);
+            final CalibrationDatabase.Calibration calibration = new CalibrationDatabase.Calibration(
+                    persistedConfiguration, calibratedConfiguration, pInfo.versionCode, rawSamples);
 
-            // Insert the new row, returning the primary key value of the new row
-            if (db.insert(CalibrationData.TABLE_NAME, null, values) == -1) {
-                Log.wtf(TAG, "Could not insert calibration data into database.");
-            }
+            CalibrationDatabase.getInstance(this).insert(calibration, mHandler, new CalibrationDatabase.Callback() {
+                @Override
+                public void onInserted(long rowId) {
+                    if (rowId == -1) {
+                        Log.wtf(TAG, "Could not insert calibration data into database.");
+                    }
+                }
+            });
         }
     }
 
@@ -1,5 +1,7 @@
 package com.fairphone.psensor;
 
+import android.content.ContentResolver;
+import android.net.Uri;
 import android.provider.BaseColumns;
 
 public final class CalibrationContract {
@@ -7,6 +9,12 @@ public final class CalibrationContract {
     // give it an empty constructor.
     private CalibrationContract() {}
 
+    /**
+     * Authority of the (read-only) calibration history provider.
+     */
+    public static final String AUTHORITY = "com.fairphone.psensor.calibrations";
+    public static final Uri AUTHORITY_URI = Uri.parse("content://" + AUTHORITY);
+
     /* Inner class that defines the table contents */
     public static abstract class CalibrationData implements BaseColumns {
         public static final String TABLE_NAME = "calibration";
@@ -18,6 +26,61 @@ public final class CalibrationContract {
         public static final String COLUMN_NAME_FAR = "far";
         public static final String COLUMN_NAME_OFFSET = "offset";
         public static final String COLUMN_NAME_APP_VERSION = "app_version";
+        /**
+         * The blocked and non-blocked samples the calibration was computed from, packed with
+         * {@link com.fairphone.psensor.sensor.PackedSamples}, or <code>null</code>.
+         */
+        public static final String COLUMN_NAME_RAW_SAMPLES = "raw_samples";
+
+        public static final String INDEX_NAME_TIMESTAMP = TABLE_NAME + "_" + COLUMN_NAME_TIMESTAMP + "_index";
+
+        /**
+         * The calibrations, newest first, or a single calibration when followed by its id.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, TABLE_NAME);
+        public static final String CONTENT_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd.com.fairphone.psensor.calibration";
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/vnd.com.fairphone.psensor.calibration";
+
+        /**
+         * Query parameter: maximal amount of calibrations returned.
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+        /**
+         * Query parameter: only return the calibrations with an id lower than this one (next page, newest first).
+         */
+        public static final String QUERY_PARAMETER_BEFORE_ID = "before";
+        /**
+         * Query parameter: only return the calibrations stored since this time (in milliseconds since the epoch),
+         * oldest first.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+        /**
+         * Query parameter: only return the calibrations with an id greater than this one (next page, oldest first).
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after";
     }
-}
 
+    /**
+     * Per-month aggregates of the calibrations folded out of {@link CalibrationData} by the history compaction. <br>
+     * <br>
+     * The sums are kept rather than the means so that later compactions can be merged exactly: the mean of a value is
+     * its sum divided by {@link #COLUMN_NAME_COUNT}.
+     */
+    public static abstract class CalibrationMonthlyAggregate {
+        public static final String TABLE_NAME = "calibration_monthly";
+        /**
+         * The month of the calibrations, <code>YYYY-MM</code> in UTC.
+         */
+        public static final String COLUMN_NAME_MONTH = "month";
+        public static final String COLUMN_NAME_COUNT = "count";
+        public static final String COLUMN_NAME_SUM_NEAR = "sum_near";
+        public static final String COLUMN_NAME_MIN_NEAR = "min_near";
+        public static final String COLUMN_NAME_MAX_NEAR = "max_near";
+        public static final String COLUMN_NAME_SUM_FAR = "sum_far";
+        public static final String COLUMN_NAME_MIN_FAR = "min_far";
+        public static final String COLUMN_NAME_MAX_FAR = "max_far";
+        public static final String COLUMN_NAME_SUM_OFFSET = "sum_offset";
+        public static final String COLUMN_NAME_MIN_OFFSET = "min_offset";
+        public static final String COLUMN_NAME_MAX_OFFSET = "max_offset";
+    }
+}
@@ -0,0 +1,441 @@
+package com.fairphone.psensor;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.util.Log;
+
+import com.fairphone.psensor.CalibrationContract.CalibrationData;
+import com.fairphone.psensor.CalibrationContract.CalibrationMonthlyAggregate;
+import com.fairphone.psensor.sensor.PackedSamples;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide access to the calibration database. <br>
+ * <br>
+ * The database is opened once per process, with write-ahead logging, and is never accessed from the calling thread:
+ * rows are queued and written on a single background thread. All the rows pending when the writer thread wakes up are
+ * inserted in one transaction through a precompiled statement. <br>
+ * <br>
+ * Queries return a {@link Cursor} paged with a keyset (the row id) rather than an offset, so that a large history is
+ * streamed one window at a time and every page costs the same. Queries run on the calling thread, which must not be
+ * the UI thread. <br>
+ * <br>
+ * The history is bounded by {@link #compact(int)}, which folds the older calibrations into monthly aggregates.
+ */
+public final class CalibrationDatabase {
+    private static final String TAG = CalibrationDatabase.class.getSimpleName();
+
+    /**
+     * Time after which the idle writer thread is stopped (in seconds).
+     */
+    private static final long KEEP_ALIVE_S = 30;
+
+    private static final String SQL_INSERT_CALIBRATION =
+            "INSERT INTO " + CalibrationData.TABLE_NAME + " (" +
+                    CalibrationData.COLUMN_NAME_PREVIOUS_NEAR + ", " +
+                    CalibrationData.COLUMN_NAME_PREVIOUS_FAR + ", " +
+                    CalibrationData.COLUMN_NAME_PREVIOUS_OFFSET + ", " +
+                    CalibrationData.COLUMN_NAME_NEAR + ", " +
+                    CalibrationData.COLUMN_NAME_FAR + ", " +
+                    CalibrationData.COLUMN_NAME_OFFSET + ", " +
+                    CalibrationData.COLUMN_NAME_APP_VERSION + ", " +
+                    CalibrationData.COLUMN_NAME_RAW_SAMPLES +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_SELECT_OLDEST_KEPT_ID =
+            "SELECT " + CalibrationData._ID + " FROM " + CalibrationData.TABLE_NAME +
+            " ORDER BY " + CalibrationData._ID + " DESC LIMIT 1 OFFSET ?";
+
+    private static final String SQL_SELECT_MONTHLY_AGGREGATES =
+            "SELECT strftime('%Y-%m', " + CalibrationData.COLUMN_NAME_TIMESTAMP + ") AS month, COUNT(*), " +
+                    "SUM(" + CalibrationData.COLUMN_NAME_NEAR + "), " +
+                    "MIN(" + CalibrationData.COLUMN_NAME_NEAR + "), " +
+                    "MAX(" + CalibrationData.COLUMN_NAME_NEAR + "), " +
+                    "SUM(" + CalibrationData.COLUMN_NAME_FAR + "), " +
+                    "MIN(" + CalibrationData.COLUMN_NAME_FAR + "), " +
+                    "MAX(" + CalibrationData.COLUMN_NAME_FAR + "), " +
+                    "SUM(" + CalibrationData.COLUMN_NAME_OFFSET + "), " +
+                    "MIN(" + CalibrationData.COLUMN_NAME_OFFSET + "), " +
+                    "MAX(" + CalibrationData.COLUMN_NAME_OFFSET + ")" +
+            " FROM " + CalibrationData.TABLE_NAME + " WHERE " + CalibrationData._ID + " < ? GROUP BY month";
+
+    /**
+     * Create the aggregate of a month if it does not exist yet, empty but with the bounds of the rows to fold.
+     */
+    private static final String SQL_INSERT_MONTHLY_AGGREGATE =
+            "INSERT OR IGNORE INTO " + CalibrationMonthlyAggregate.TABLE_NAME + " (" +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MONTH + ", " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_COUNT + ", " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_SUM_NEAR + ", " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MIN_NEAR + ", " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MAX_NEAR + ", " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_SUM_FAR + ", " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MIN_FAR + ", " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MAX_FAR + ", " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_SUM_OFFSET + ", " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MIN_OFFSET + ", " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MAX_OFFSET +
+            ") VALUES (?, 0, 0, ?, ?, 0, ?, ?, 0, ?, ?)";
+
+    private static final String SQL_UPDATE_MONTHLY_AGGREGATE =
+            "UPDATE " + CalibrationMonthlyAggregate.TABLE_NAME + " SET " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_COUNT + " = " + CalibrationMonthlyAggregate.COLUMN_NAME_COUNT + " + ?, " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_SUM_NEAR + " = " + CalibrationMonthlyAggregate.COLUMN_NAME_SUM_NEAR + " + ?, " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MIN_NEAR + " = MIN(" + CalibrationMonthlyAggregate.COLUMN_NAME_MIN_NEAR + ", ?), " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MAX_NEAR + " = MAX(" + CalibrationMonthlyAggregate.COLUMN_NAME_MAX_NEAR + ", ?), " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_SUM_FAR + " = " + CalibrationMonthlyAggregate.COLUMN_NAME_SUM_FAR + " + ?, " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MIN_FAR + " = MIN(" + CalibrationMonthlyAggregate.COLUMN_NAME_MIN_FAR + ", ?), " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MAX_FAR + " = MAX(" + CalibrationMonthlyAggregate.COLUMN_NAME_MAX_FAR + ", ?), " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_SUM_OFFSET + " = " + CalibrationMonthlyAggregate.COLUMN_NAME_SUM_OFFSET + " + ?, " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MIN_OFFSET + " = MIN(" + CalibrationMonthlyAggregate.COLUMN_NAME_MIN_OFFSET + ", ?), " +
+                    CalibrationMonthlyAggregate.COLUMN_NAME_MAX_OFFSET + " = MAX(" + CalibrationMonthlyAggregate.COLUMN_NAME_MAX_OFFSET + ", ?)" +
+            " WHERE " + CalibrationMonthlyAggregate.COLUMN_NAME_MONTH + " = ?";
+
+    /**
+     * Format of the timestamps stored by SQLite for <code>CURRENT_TIMESTAMP</code>, in UTC.
+     */
+    private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    private static CalibrationDatabase sInstance;
+
+    /**
+     * Callback receiving the result of an insertion.
+     */
+    public interface Callback {
+        /**
+         * Called on the handler thread once the row has been written.
+         *
+         * @param rowId The id of the new row or <code>-1</code> if the insertion failed.
+         */
+        void onInserted(long rowId);
+    }
+
+    /**
+     * A calibration to store.
+     */
+    public static final class Calibration {
+        public final ProximitySensorConfiguration previousConfiguration;
+        public final ProximitySensorConfiguration configuration;
+        public final int appVersion;
+        public final byte[] rawSamples;
+
+        /**
+         * @param previousConfiguration The configuration before the calibration.
+         * @param configuration The configuration computed by the calibration.
+         * @param appVersion The version code of the app.
+         * @param rawSamples The packed raw samples (see {@link PackedSamples}) or <code>null</code>.
+         */
+        public Calibration(ProximitySensorConfiguration previousConfiguration,
+                           ProximitySensorConfiguration configuration, int appVersion, byte[] rawSamples) {
+            this.previousConfiguration = new ProximitySensorConfiguration(previousConfiguration);
+            this.configuration = new ProximitySensorConfiguration(configuration);
+            this.appVersion = appVersion;
+            this.rawSamples = rawSamples;
+        }
+    }
+
+    private static final class PendingInsert {
+        final Calibration calibration;
+        final Handler handler;
+        final Callback callback;
+
+        PendingInsert(Calibration calibration, Handler handler, Callback callback) {
+            this.calibration = calibration;
+            this.handler = handler;
+            this.callback = callback;
+        }
+    }
+
+    private final CalibrationDbHelper mDbHelper;
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Rows waiting for the writer thread, guarded by itself.
+     */
+    private final List<PendingInsert> mPendingInserts = new ArrayList<>();
+    private boolean mFlushScheduled;
+
+    /**
+     * Only accessed from the writer thread.
+     */
+    private SQLiteStatement mInsertStatement;
+
+    private CalibrationDatabase(Context context) {
+        mDbHelper = new CalibrationDbHelper(context);
+        mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, CalibrationDatabase.class.getSimpleName());
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param context Any context of the app.
+     * @return The calibration database of the process.
+     */
+    public static synchronized CalibrationDatabase getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CalibrationDatabase(context.getApplicationContext());
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Queue a calibration to be stored in the background.
+     *
+     * @param calibration The calibration to store.
+     * @param handler The handler to deliver the result through, ignored if there is no callback.
+     * @param callback The callback receiving the result or <code>null</code>.
+     */
+    public void insert(Calibration calibration, Handler handler, Callback callback) {
+        synchronized (mPendingInserts) {
+            mPendingInserts.add(new PendingInsert(calibration, handler, callback));
+
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mExecutor.execute(mFlushPendingInserts);
+            }
+        }
+    }
+
+    /**
+     * Query the latest calibrations, newest first.
+     *
+     * @param projection The columns to return or <code>null</code> for all.
+     * @param limit The maximal amount of calibrations to return.
+     * @return The cursor, to close by the caller.
+     */
+    public Cursor queryLatest(String[] projection, int limit) {
+        return queryBefore(projection, Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * Query the next page of {@link #queryLatest(String[], int)}, newest first.
+     *
+     * @param projection The columns to return or <code>null</code> for all.
+     * @param beforeId The id of the last calibration of the previous page (exclusive).
+     * @param limit The maximal amount of calibrations to return.
+     * @return The cursor, to close by the caller.
+     */
+    public Cursor queryBefore(String[] projection, long beforeId, int limit) {
+        return query(projection, CalibrationData._ID + " < ?", new String[]{String.valueOf(beforeId)},
+                CalibrationData._ID + " DESC", String.valueOf(limit));
+    }
+
+    /**
+     * Query the calibrations stored since a given time, oldest first.
+     *
+     * @param projection The columns to return or <code>null</code> for all.
+     * @param sinceMillis The time to start from (in milliseconds since the epoch, inclusive).
+     * @param afterId The id of the last calibration of the previous page (exclusive) or <code>-1</code> for the first
+     * page.
+     * @param limit The maximal amount of calibrations to return.
+     * @return The cursor, to close by the caller.
+     */
+    public Cursor querySince(String[] projection, long sinceMillis, long afterId, int limit) {
+        return query(projection,
+                CalibrationData.COLUMN_NAME_TIMESTAMP + " >= ? AND " + CalibrationData._ID + " > ?",
+                new String[]{formatTimestamp(sinceMillis), String.valueOf(afterId)},
+                CalibrationData._ID + " ASC", String.valueOf(limit));
+    }
+
+    /**
+     * Query the calibrations.
+     *
+     * @param projection The columns to return or <code>null</code> for all.
+     * @param selection The filter or <code>null</code> for all the calibrations.
+     * @param selectionArgs The arguments of the filter.
+     * @param sortOrder The order or <code>null</code> for the storage order.
+     * @param limit The maximal amount of calibrations to return or <code>null</code> for no limit.
+     * @return The cursor, to close by the caller.
+     */
+    public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder, String limit) {
+        return mDbHelper.getReadableDatabase().query(CalibrationData.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder, limit);
+    }
+
+    /**
+     * Keep the latest calibrations and fold the older ones into the monthly aggregates (see
+     * {@link CalibrationMonthlyAggregate}), all in one transaction. <br>
+     * <br>
+     * Runs on the calling thread, which must not be the UI thread.
+     *
+     * @param keepLatest The amount of latest calibrations to keep in full.
+     * @return The amount of calibrations folded.
+     */
+    public int compact(int keepLatest) {
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        db.beginTransactionNonExclusive();
+        try {
+            final long oldestKeptId = getOldestKeptId(db, keepLatest);
+            if (oldestKeptId < 0) {
+                return 0;
+            }
+
+            foldIntoMonthlyAggregates(db, oldestKeptId);
+            final int folded = db.delete(CalibrationData.TABLE_NAME, CalibrationData._ID + " < ?",
+                    new String[]{String.valueOf(oldestKeptId)});
+
+            db.setTransactionSuccessful();
+
+            Log.i(TAG, folded + " calibration(s) folded into the monthly aggregates");
+            return folded;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @param timeMillis A time (in milliseconds since the epoch).
+     * @return The time in the format of the timestamp column.
+     */
+    public static String formatTimestamp(long timeMillis) {
+        final SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        return format.format(new Date(timeMillis));
+    }
+
+    private final Runnable mFlushPendingInserts = new Runnable() {
+        @Override
+        public void run() {
+            final List<PendingInsert> pendingInserts;
+
+            synchronized (mPendingInserts) {
+                pendingInserts = new ArrayList<>(mPendingInserts);
+                mPendingInserts.clear();
+                mFlushScheduled = false;
+            }
+
+            final long[] rowIds = new long[pendingInserts.size()];
+            try {
+                insertAll(pendingInserts, rowIds);
+            } catch (Exception e) {
+                Log.wtf(TAG, e);
+
+                for (int i = 0; i < rowIds.length; i++) {
+                    rowIds[i] = -1;
+                }
+            }
+
+            for (int i = 0; i < rowIds.length; i++) {
+                deliver(pendingInserts.get(i), rowIds[i]);
+            }
+        }
+    };
+
+    private void insertAll(List<PendingInsert> pendingInserts, long[] rowIds) {
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        if (mInsertStatement == null) {
+            mInsertStatement = db.compileStatement(SQL_INSERT_CALIBRATION);
+        }
+
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < rowIds.length; i++) {
+                final Calibration calibration = pendingInserts.get(i).calibration;
+
+                mInsertStatement.bindLong(1, calibration.previousConfiguration.nearThreshold);
+                mInsertStatement.bindLong(2, calibration.previousConfiguration.farThreshold);
+                mInsertStatement.bindLong(3, calibration.previousConfiguration.offsetCompensation);
+                mInsertStatement.bindLong(4, calibration.configuration.nearThreshold);
+                mInsertStatement.bindLong(5, calibration.configuration.farThreshold);
+                mInsertStatement.bindLong(6, calibration.configuration.offsetCompensation);
+                mInsertStatement.bindLong(7, calibration.appVersion);
+                if (calibration.rawSamples != null) {
+                    mInsertStatement.bindBlob(8, calibration.rawSamples);
+                } else {
+                    mInsertStatement.bindNull(8);
+                }
+
+                rowIds[i] = mInsertStatement.executeInsert();
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        Log.d(TAG, rowIds.length + " calibration(s) stored");
+    }
+
+    /**
+     * @return The id of the oldest calibration to keep, {@link Long#MAX_VALUE} to fold all of them, or <code>-1</code>
+     * if there are not more than <code>keepLatest</code> calibrations.
+     */
+    private static long getOldestKeptId(SQLiteDatabase db, int keepLatest) {
+        if (keepLatest <= 0) {
+            return Long.MAX_VALUE;
+        }
+
+        final Cursor cursor = db.rawQuery(SQL_SELECT_OLDEST_KEPT_ID, new String[]{String.valueOf(keepLatest - 1)});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void foldIntoMonthlyAggregates(SQLiteDatabase db, long oldestKeptId) {
+        final SQLiteStatement insert = db.compileStatement(SQL_INSERT_MONTHLY_AGGREGATE);
+        final SQLiteStatement update = db.compileStatement(SQL_UPDATE_MONTHLY_AGGREGATE);
+        final Cursor cursor = db.rawQuery(SQL_SELECT_MONTHLY_AGGREGATES, new String[]{String.valueOf(oldestKeptId)});
+
+        try {
+            while (cursor.moveToNext()) {
+                final String month = cursor.getString(0);
+
+                insert.bindString(1, month);
+                for (int i = 0; i < 3; i++) {
+                    // Bounds of the near threshold, far threshold and offset
+                    insert.bindLong(2 + 2 * i, cursor.getLong(3 + 3 * i));
+                    insert.bindLong(3 + 2 * i, cursor.getLong(4 + 3 * i));
+                }
+                insert.executeInsert();
+
+                update.bindLong(1, cursor.getLong(1));
+                for (int i = 2; i <= 10; i++) {
+                    update.bindLong(i, cursor.getLong(i));
+                }
+                update.bindString(11, month);
+                update.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+            update.close();
+        }
+    }
+
+    private static void deliver(final PendingInsert pendingInsert, final long rowId) {
+        if (pendingInsert.callback == null) {
+            return;
+        }
+
+        pendingInsert.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                pendingInsert.callback.onInserted(rowId);
+            }
+        });
+    }
+}
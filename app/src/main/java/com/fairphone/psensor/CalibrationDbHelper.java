@@ -1,13 +1,18 @@
 package com.fairphone.psensor;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 public class CalibrationDbHelper extends SQLiteOpenHelper {
+    private static final String TAG = CalibrationDbHelper.class.getSimpleName();
 
     private static final String DATETIME_TYPE = " DATETIME";
     private static final String INTEGER_TYPE = " INTEGER";
+    private static final String BLOB_TYPE = " BLOB";
+    private static final String TEXT_TYPE = " TEXT";
 
     private static final String DEFAULT = " DEFAULT";
     private static final String CURRENT_TIMESTAMP = " CURRENT_TIMESTAMP";
@@ -25,28 +30,98 @@ public class CalibrationDbHelper extends SQLiteOpenHelper {
                     CalibrationContract.CalibrationData.COLUMN_NAME_APP_VERSION + INTEGER_TYPE +
             " )";
 
-    private static final String SQL_DELETE_ENTRIES =
-            "DROP TABLE IF EXISTS " + CalibrationContract.CalibrationData.TABLE_NAME;
+    private static final String SQL_CREATE_TIMESTAMP_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + CalibrationContract.CalibrationData.INDEX_NAME_TIMESTAMP + " ON " +
+                    CalibrationContract.CalibrationData.TABLE_NAME + " (" +
+                    CalibrationContract.CalibrationData.COLUMN_NAME_TIMESTAMP + ")";
 
-    public static final int DATABASE_VERSION = 1;
+    private static final String SQL_ADD_RAW_SAMPLES_COLUMN =
+            "ALTER TABLE " + CalibrationContract.CalibrationData.TABLE_NAME + " ADD COLUMN " +
+                    CalibrationContract.CalibrationData.COLUMN_NAME_RAW_SAMPLES + BLOB_TYPE;
+
+    private static final String SQL_CREATE_MONTHLY_AGGREGATES =
+            "CREATE TABLE IF NOT EXISTS " + CalibrationContract.CalibrationMonthlyAggregate.TABLE_NAME + " (" +
+                    CalibrationContract.CalibrationMonthlyAggregate.COLUMN_NAME_MONTH + TEXT_TYPE + " PRIMARY KEY" + COMMA_SEP +
+                    CalibrationContract.CalibrationMonthlyAggregate.COLUMN_NAME_COUNT + INTEGER_TYPE + COMMA_SEP +
+                    CalibrationContract.CalibrationMonthlyAggregate.COLUMN_NAME_SUM_NEAR + INTEGER_TYPE + COMMA_SEP +
+                    CalibrationContract.CalibrationMonthlyAggregate.COLUMN_NAME_MIN_NEAR + INTEGER_TYPE + COMMA_SEP +
+                    CalibrationContract.CalibrationMonthlyAggregate.COLUMN_NAME_MAX_NEAR + INTEGER_TYPE + COMMA_SEP +
+                    CalibrationContract.CalibrationMonthlyAggregate.COLUMN_NAME_SUM_FAR + INTEGER_TYPE + COMMA_SEP +
+                    CalibrationContract.CalibrationMonthlyAggregate.COLUMN_NAME_MIN_FAR + INTEGER_TYPE + COMMA_SEP +
+                    CalibrationContract.CalibrationMonthlyAggregate.COLUMN_NAME_MAX_FAR + INTEGER_TYPE + COMMA_SEP +
+                    CalibrationContract.CalibrationMonthlyAggregate.COLUMN_NAME_SUM_OFFSET + INTEGER_TYPE + COMMA_SEP +
+                    CalibrationContract.CalibrationMonthlyAggregate.COLUMN_NAME_MIN_OFFSET + INTEGER_TYPE + COMMA_SEP +
+                    CalibrationContract.CalibrationMonthlyAggregate.COLUMN_NAME_MAX_OFFSET + INTEGER_TYPE +
+            " )";
+
+    /**
+     * Version 1: initial schema.<br>
+     * Version 2: index on the timestamp.<br>
+     * Version 3: raw samples of the calibration (see {@link com.fairphone.psensor.sensor.PackedSamples}).<br>
+     * Version 4: monthly aggregates of the compacted calibrations.
+     */
+    public static final int DATABASE_VERSION = 4;
     public static final String DATABASE_NAME = "CalibrationData.db";
 
     public CalibrationDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
     }
 
     public void onCreate(SQLiteDatabase db) {
+        // Create the initial schema and migrate it, so that every database goes through the same steps
         db.execSQL(SQL_CREATE_ENTRIES);
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        db.execSQL(SQL_DELETE_ENTRIES);
-        onCreate(db);
+        // Migrate in place, one version at a time, so that the history is kept
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrateTo(db, version);
+        }
     }
 
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        onUpgrade(db, oldVersion, newVersion);
+        // Newer versions only add columns and indexes, which older versions ignore: keep the history
+        Log.w(TAG, "Database downgraded from version " + oldVersion + " to " + newVersion + ", schema kept");
+    }
+
+    private static void migrateTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                db.execSQL(SQL_CREATE_TIMESTAMP_INDEX);
+                break;
+
+            case 3:
+                // The column is kept on downgrade, it may already exist
+                if (!hasColumn(db, CalibrationContract.CalibrationData.TABLE_NAME, CalibrationContract.CalibrationData.COLUMN_NAME_RAW_SAMPLES)) {
+                    db.execSQL(SQL_ADD_RAW_SAMPLES_COLUMN);
+                }
+                break;
+
+            case 4:
+                db.execSQL(SQL_CREATE_MONTHLY_AGGREGATES);
+                break;
+
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
+    }
+
+    private static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+        final Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+
+        try {
+            final int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameIndex))) {
+                    return true;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return false;
     }
 }
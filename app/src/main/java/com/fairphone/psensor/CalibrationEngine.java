@@ -0,0 +1,331 @@
+package com.fairphone.psensor;
+
+import com.fairphone.psensor.sensor.SampleStatistics;
+
+import java.util.Locale;
+
+/**
+ * Computation of a new proximity sensor configuration from the blocked and non-blocked values read. <br>
+ * <br>
+ * The engine has no side effect and no Android dependency: it neither reads the sensor nor persists anything, so it
+ * can be run headless, e.g. against recorded calibrations. <br>
+ * <br>
+ * The near threshold is {@link #NEAR_THRESHOLD_FROM_BLOCKED_VALUE} below the blocked value and the far threshold is
+ * {@link #FAR_THRESHOLD_FROM_NEAR_THRESHOLD} below the near threshold. <br>
+ * <br>
+ * The offset compensation is -was- 0 out of factory and could cause issues because certain devices require a higher
+ * compensation. The dynamic offset compensation is computed from the non-blocked value.<br>
+ * The rules and heuristic are as follow:
+ * <ol>
+ * <li>The read value is reduced by approx. {@link #OFFSET_COMPENSATION_STEP} (sensor units) for each offset
+ * compensation increment (from the specification).</li>
+ * <li>According to the vendor, the value read must be above 0 when non-blocked and as close to is as possible, we
+ * use the integer part of <code>floor("value read"/32)</code> value and decrement it by 1..</li>
+ * <li>By doing so, we take into consideration the current state that might be (and likely is) not perfectly clean.
+ * A cleaner state will result in lower values read, and we do not wish to have values &lt; 0 read. The non-blocked
+ * value then belongs to [32;63] in the current conditions.</li>
+ * <li>If the value read is already 0, we lower the persisted offset by {@link #OFFSET_DECREMENT_FROM_ZERO_VALUE} to
+ * reach a similar non-blocked range than above.</li>
+ * <li>The proximity sensor offset compensation belongs to [{@link ProximitySensorConfiguration#MIN_OFFSET_COMPENSATION}, {@link ProximitySensorConfiguration#MAX_OFFSET_COMPENSATION}].</li>
+ * </ol>
+ * When the offset compensation can be applied to the running driver, it is rather searched for in closed loop (see
+ * {@link #calibrate(int, ProximitySensorConfiguration, OffsetProbe)}): the range is binary-searched for the lowest
+ * offset compensation bringing the non-blocked value down to the same target band
+ * [{@link #TARGET_NON_BLOCKED_MIN_VALUE};{@link #TARGET_NON_BLOCKED_MAX_VALUE}], measuring the non-blocked value
+ * after each step instead of relying on the specified step.
+ */
+public final class CalibrationEngine {
+
+    /**
+     * Value to compute the near threshold from the blocked value (in sensor units).
+     */
+    public static final int NEAR_THRESHOLD_FROM_BLOCKED_VALUE = 30;
+    /**
+     * Value to compute the far threshold from the near threshold (in sensor units).
+     */
+    public static final int FAR_THRESHOLD_FROM_NEAR_THRESHOLD = 30;
+    /**
+     * Decrease of the value read for each offset compensation increment (in sensor units).
+     */
+    public static final int OFFSET_COMPENSATION_STEP = 32;
+    /**
+     * Decrease of the persisted offset compensation when the non-blocked value read is 0.
+     */
+    public static final int OFFSET_DECREMENT_FROM_ZERO_VALUE = 2;
+    /**
+     * Lower bound (inclusive) of the non-blocked value targeted by the offset compensation (in sensor units).
+     */
+    public static final int TARGET_NON_BLOCKED_MIN_VALUE = OFFSET_COMPENSATION_STEP;
+    /**
+     * Upper bound (inclusive) of the non-blocked value targeted by the offset compensation (in sensor units).
+     */
+    public static final int TARGET_NON_BLOCKED_MAX_VALUE = 2 * OFFSET_COMPENSATION_STEP - 1;
+
+    /**
+     * Rule applied to compute the offset compensation: from the non-blocked value and the persisted offset.
+     */
+    public static final int OFFSET_FROM_NON_BLOCKED_VALUE = 0;
+    /**
+     * Rule applied to compute the offset compensation: from the persisted offset only, the non-blocked value being 0.
+     */
+    public static final int OFFSET_FROM_PERSISTED_OFFSET = 1;
+    /**
+     * Rule applied to compute the offset compensation: searched for by measuring the non-blocked value it leads to.
+     */
+    public static final int OFFSET_FROM_SEARCH = 2;
+
+    private CalibrationEngine() {
+    }
+
+    /**
+     * Measurement of the non-blocked value with a given offset compensation, e.g. by applying it to the running
+     * driver and reading the sensor.
+     */
+    public interface OffsetProbe {
+        /**
+         * @param offsetCompensation The offset compensation to measure with.
+         * @return The non-blocked value read with the offset compensation (in sensor units) or <code>-1</code> if the
+         * measurement failed.
+         */
+        int measureNonBlockedValue(int offsetCompensation);
+    }
+
+    /**
+     * Outcome of a calibration: the new configuration and why it was chosen.
+     */
+    public static final class Result {
+        /**
+         * The computed configuration.
+         */
+        public final ProximitySensorConfiguration configuration;
+        /**
+         * The blocked value the thresholds were computed from (in sensor units).
+         */
+        public final int blockedValue;
+        /**
+         * The non-blocked value the offset compensation was computed from (in sensor units). <br>
+         * For a searched offset compensation, the value measured with it or <code>-1</code> if it was not measured.
+         */
+        public final int nonBlockedValue;
+        /**
+         * The persisted offset compensation the new one is relative to.
+         */
+        public final int persistedOffsetCompensation;
+        /**
+         * The rule applied to compute the offset compensation, {@link #OFFSET_FROM_NON_BLOCKED_VALUE},
+         * {@link #OFFSET_FROM_PERSISTED_OFFSET} or {@link #OFFSET_FROM_SEARCH}.
+         */
+        public final int offsetRule;
+        /**
+         * Whether the offset compensation had to be clamped to the range allowed by the device.
+         */
+        public final boolean offsetClamped;
+        /**
+         * The amount of measurements taken to search for the offset compensation, 0 if it was not searched for.
+         */
+        public final int measurements;
+
+        private Result(ProximitySensorConfiguration configuration, int blockedValue, int nonBlockedValue,
+                       int persistedOffsetCompensation, int offsetRule, boolean offsetClamped, int measurements) {
+            this.configuration = configuration;
+            this.blockedValue = blockedValue;
+            this.nonBlockedValue = nonBlockedValue;
+            this.persistedOffsetCompensation = persistedOffsetCompensation;
+            this.offsetRule = offsetRule;
+            this.offsetClamped = offsetClamped;
+            this.measurements = measurements;
+        }
+
+        /**
+         * @return <code>true</code> if the non-blocked value was measured in the target band with the offset
+         * compensation searched for, <code>false</code> if not or if the offset compensation was not searched for.
+         */
+        public boolean isOffsetConverged() {
+            return offsetRule == OFFSET_FROM_SEARCH && isInTargetBand(nonBlockedValue);
+        }
+
+        /**
+         * @return A human readable explanation of the computed configuration.
+         */
+        public String getRationale() {
+            final String offset;
+
+            if (offsetRule == OFFSET_FROM_SEARCH) {
+                offset = String.format(Locale.ENGLISH, "offset %d searched in %d measurement(s), non-blocked value %s %s target band [%d;%d]",
+                        configuration.offsetCompensation, measurements,
+                        nonBlockedValue < 0 ? "not measured," : String.valueOf(nonBlockedValue),
+                        isOffsetConverged() ? "in" : "not in", TARGET_NON_BLOCKED_MIN_VALUE, TARGET_NON_BLOCKED_MAX_VALUE);
+            } else if (offsetRule == OFFSET_FROM_PERSISTED_OFFSET) {
+                offset = String.format(Locale.ENGLISH, "offset %d = persisted offset %d - %d (non-blocked value is 0)",
+                        configuration.offsetCompensation, persistedOffsetCompensation, OFFSET_DECREMENT_FROM_ZERO_VALUE);
+            } else {
+                offset = String.format(Locale.ENGLISH, "offset %d = persisted offset %d + %d / %d - 1",
+                        configuration.offsetCompensation, persistedOffsetCompensation, nonBlockedValue,
+                        OFFSET_COMPENSATION_STEP);
+            }
+
+            return String.format(Locale.ENGLISH, "near threshold %d = blocked value %d - %d; far threshold %d = near threshold - %d; %s%s",
+                    configuration.nearThreshold, blockedValue, NEAR_THRESHOLD_FROM_BLOCKED_VALUE,
+                    configuration.farThreshold, FAR_THRESHOLD_FROM_NEAR_THRESHOLD,
+                    offset, offsetClamped ? " (clamped)" : "");
+        }
+
+        @Override
+        public String toString() {
+            return configuration + ": " + getRationale();
+        }
+    }
+
+    /**
+     * Compute a new configuration from the statistics of the blocked and non-blocked readings.
+     *
+     * @param blocked The statistics of the blocked reading, not empty.
+     * @param nonBlocked The statistics of the non-blocked reading, not empty.
+     * @param persisted The configuration currently persisted.
+     * @return The new configuration and its rationale.
+     * @throws IllegalArgumentException if a reading is empty.
+     * @see #calibrate(int, int, ProximitySensorConfiguration)
+     */
+    public static Result calibrate(SampleStatistics blocked, SampleStatistics nonBlocked,
+                                   ProximitySensorConfiguration persisted) throws IllegalArgumentException {
+        if (blocked.isEmpty() || nonBlocked.isEmpty()) {
+            throw new IllegalArgumentException("Cannot calibrate without blocked and non-blocked samples");
+        }
+
+        return calibrate(blocked.getRoundedMean(), nonBlocked.getRoundedMean(), persisted);
+    }
+
+    /**
+     * Compute a new configuration from the blocked and non-blocked values.
+     *
+     * @param blockedValue The value read with the sensor blocked (in sensor units).
+     * @param nonBlockedValue The value read with the sensor non-blocked (in sensor units).
+     * @param persisted The configuration currently persisted.
+     * @return The new configuration and its rationale.
+     */
+    public static Result calibrate(int blockedValue, int nonBlockedValue, ProximitySensorConfiguration persisted) {
+        final ProximitySensorConfiguration configuration = new ProximitySensorConfiguration();
+
+        configuration.nearThreshold = blockedValue - NEAR_THRESHOLD_FROM_BLOCKED_VALUE;
+        configuration.farThreshold = configuration.nearThreshold - FAR_THRESHOLD_FROM_NEAR_THRESHOLD;
+
+        final int offsetRule;
+        final int offset;
+        if (nonBlockedValue == 0) {
+            offsetRule = OFFSET_FROM_PERSISTED_OFFSET;
+            offset = persisted.offsetCompensation - OFFSET_DECREMENT_FROM_ZERO_VALUE;
+        } else {
+            offsetRule = OFFSET_FROM_NON_BLOCKED_VALUE;
+            offset = persisted.offsetCompensation + nonBlockedValue / OFFSET_COMPENSATION_STEP - 1;
+        }
+        configuration.offsetCompensation = clampOffsetCompensation(offset);
+
+        return new Result(configuration, blockedValue, nonBlockedValue, persisted.offsetCompensation, offsetRule,
+                configuration.offsetCompensation != offset, 0);
+    }
+
+    /**
+     * Compute a new configuration from the blocked value, searching for the offset compensation in closed loop. <br>
+     * <br>
+     * The non-blocked value decreases as the offset compensation increases, so the range allowed by the device is
+     * binary-searched for the lowest offset compensation with a non-blocked value up to
+     * {@link #TARGET_NON_BLOCKED_MAX_VALUE}. The search stops as soon as a measured value lands in the target band,
+     * keeping that offset compensation, and otherwise takes <code>log2(range size)</code> measurements, i.e. 4 for 16 offset compensations. The last
+     * offset compensation left may then not have been measured. If no offset compensation reaches the target band,
+     * the closest one is chosen.
+     *
+     * @param blockedValue The value read with the sensor blocked (in sensor units).
+     * @param persisted The configuration currently persisted.
+     * @param probe The probe measuring the non-blocked value with an offset compensation.
+     * @return The new configuration and its rationale or <code>null</code> if a measurement failed.
+     */
+    public static Result calibrate(int blockedValue, ProximitySensorConfiguration persisted, OffsetProbe probe) {
+        final ProximitySensorConfiguration configuration = new ProximitySensorConfiguration();
+
+        configuration.nearThreshold = blockedValue - NEAR_THRESHOLD_FROM_BLOCKED_VALUE;
+        configuration.farThreshold = configuration.nearThreshold - FAR_THRESHOLD_FROM_NEAR_THRESHOLD;
+
+        int low = ProximitySensorConfiguration.MIN_OFFSET_COMPENSATION;
+        int high = ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION;
+        /* The value measured with the high bound, once measured */
+        int highValue = -1;
+        int measurements = 0;
+
+        while (low < high) {
+            final int offset = (low + high) >>> 1;
+            final int value = probe.measureNonBlockedValue(offset);
+            measurements++;
+
+            if (value < 0) {
+                return null;
+            }
+
+            if (value > TARGET_NON_BLOCKED_MAX_VALUE) {
+                low = offset + 1;
+            } else {
+                high = offset;
+                highValue = value;
+
+                if (value >= TARGET_NON_BLOCKED_MIN_VALUE) {
+                    break;
+                }
+            }
+        }
+        configuration.offsetCompensation = high;
+
+        return new Result(configuration, blockedValue, highValue, persisted.offsetCompensation, OFFSET_FROM_SEARCH,
+                false, measurements);
+    }
+
+    /**
+     * @param nonBlockedValue A non-blocked value (in sensor units).
+     * @return <code>true</code> if the value belongs to
+     * [{@link #TARGET_NON_BLOCKED_MIN_VALUE};{@link #TARGET_NON_BLOCKED_MAX_VALUE}], <code>false</code> if not.
+     */
+    public static boolean isInTargetBand(int nonBlockedValue) {
+        return TARGET_NON_BLOCKED_MIN_VALUE <= nonBlockedValue && nonBlockedValue <= TARGET_NON_BLOCKED_MAX_VALUE;
+    }
+
+    /**
+     * @param offset An offset compensation.
+     * @return The closest offset compensation allowed by the device.
+     */
+    public static int clampOffsetCompensation(int offset) {
+        return Math.min(Math.max(offset, ProximitySensorConfiguration.MIN_OFFSET_COMPENSATION),
+                ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION);
+    }
+
+    /**
+     * Determine whether a non-blocked value read once a configuration is applied confirms it, i.e. whether the sensor
+     * is considered free.
+     *
+     * @param nonBlockedValue The value read with the sensor non-blocked (in sensor units), <code>-1</code> if the
+     * reading failed.
+     * @param configuration The configuration applied.
+     * @return <code>true</code> if the value is above 0 and below the far threshold, <code>false</code> if not. A value
+     * of 0 does not confirm the configuration: the offset compensation may then over-compensate and clip the readings.
+     */
+    public static boolean isConfirmedByNonBlockedValue(int nonBlockedValue, ProximitySensorConfiguration configuration) {
+        return 0 < nonBlockedValue && nonBlockedValue < configuration.farThreshold;
+    }
+
+    /**
+     * Determine whether a non-blocked value read once the configuration of a calibration is applied confirms it. <br>
+     * <br>
+     * An offset compensation searched for without converging (see {@link Result#isOffsetConverged()}) may not have
+     * been measured at all, so the value must then also belong to the target band.
+     *
+     * @param nonBlockedValue The value read with the sensor non-blocked (in sensor units), <code>-1</code> if the
+     * reading failed.
+     * @param result The calibration whose configuration is applied.
+     * @return <code>true</code> if the value confirms the configuration, <code>false</code> if not.
+     * @see #isConfirmedByNonBlockedValue(int, ProximitySensorConfiguration)
+     */
+    public static boolean isConfirmedByNonBlockedValue(int nonBlockedValue, Result result) {
+        if (result.offsetRule == OFFSET_FROM_SEARCH && !result.isOffsetConverged() && !isInTargetBand(nonBlockedValue)) {
+            return false;
+        }
+
+        return isConfirmedByNonBlockedValue(nonBlockedValue, result.configuration);
+    }
+}
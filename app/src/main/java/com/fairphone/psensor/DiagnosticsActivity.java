@@ -1,27 +1,84 @@
 package com.fairphone.psensor;
 
 import android.app.Activity;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.util.Log;
+import android.view.Choreographer;
 import android.widget.TextView;
 
 import com.fairphone.psensor.helpers.ProximitySensorHelper;
+import com.fairphone.psensor.sensor.ContinuousSensorSampler;
+import com.fairphone.psensor.sensor.ProximityEventIngestor;
+import com.fairphone.psensor.sensor.SampleStatistics;
+import com.fairphone.psensor.sensor.SensorSource;
+import com.fairphone.psensor.sensor.TimeSeriesBuffer;
+import com.fairphone.psensor.sensor.ValueHistogram;
+import com.fairphone.psensor.views.SensorPlotView;
 
-public class DiagnosticsActivity extends Activity {
+import java.util.concurrent.atomic.AtomicBoolean;
 
-    private int mSensorChangeCount = 0;
-    private SensorEventListener mSensorEventListener;
-    private SensorManager mSensorManager;
-    private Sensor mProximitySensor;
+public class DiagnosticsActivity extends Activity {
+    private static final String TAG = DiagnosticsActivity.class.getSimpleName();
+
+    /**
+     * Amount of recent samples the statistics are computed on.
+     */
+    private static final int STATISTICS_CAPACITY = 32;
+    /**
+     * Amount of points of the plotted time series.
+     */
+    private static final int SERIES_CAPACITY = 512;
+    /**
+     * Minimal time spanned by the plotted raw series (in milliseconds): with shorter sample periods, several samples
+     * are averaged in each point.
+     */
+    private static final long SERIES_DURATION_MS = 256000;
+    /**
+     * Amount of bins of the plotted histogram.
+     */
+    private static final int HISTOGRAM_BIN_COUNT = 64;
+    /**
+     * Amount of last proximity events kept.
+     */
+    private static final int EVENT_CAPACITY = 256;
+    /**
+     * Maximal delay to report batched proximity events (in microseconds).
+     */
+    private static final int EVENT_MAX_REPORT_LATENCY_US = 500000;
+    /**
+     * Default time between two samples (in milliseconds).
+     */
+    private static final int DEFAULT_SAMPLE_PERIOD_MS = 500;
+    /**
+     * Optional intent extra to change the time between two samples (in milliseconds).
+     */
+    public static final String EXTRA_SAMPLE_PERIOD_MS = "com.fairphone.psensor.extra.SAMPLE_PERIOD_MS";
+
+    private SensorSource mSensorSource;
+    private ContinuousSensorSampler mSampler;
+    private ProximityEventIngestor mEventIngestor;
+    /**
+     * Only accessed from the sampling thread.
+     */
+    private final SampleStatistics mStatistics = new SampleStatistics(STATISTICS_CAPACITY);
+
+    private TimeSeriesBuffer mRawSeries;
+    private final TimeSeriesBuffer mEventSeries = new TimeSeriesBuffer(SERIES_CAPACITY);
+    private final ValueHistogram mHistogram = new ValueHistogram(ProximitySensorHelper.READ_MIN_LIMIT, ProximitySensorHelper.READ_MAX_LIMIT, HISTOGRAM_BIN_COUNT);
 
     private TextView mSensorValueTextView;
+    private TextView mSensorStateTextView;
+    private SensorPlotView mPlotView;
 
-    private int sensorValue;
+    private volatile int mSensorValue;
+    private volatile boolean mSensorTriggered;
+    /**
+     * Whether a proximity event was received since the ingestion started, the state being unknown until then.
+     */
+    private volatile boolean mHasProximityEvent;
+    private final AtomicBoolean mFrameUpdatePending = new AtomicBoolean();
 
     private Handler mHandler;
 
@@ -29,94 +86,133 @@ public class DiagnosticsActivity extends Activity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        ProximitySensorConfiguration persistedConfiguration = ProximitySensorConfiguration.readFromMemory();
+        ProximitySensorConfiguration persistedConfiguration = ProximitySensorConfigurationCache.readFromMemory();
         mHandler = new Handler();
-
+        mSensorSource = App.getSensorSource(this);
 
         setContentView(R.layout.activity_diagnostics);
 
         mSensorValueTextView = findViewById(R.id.sensorValue);
+        mSensorStateTextView = findViewById(R.id.proximity_sensor_state_text);
         TextView blockValueTextView = findViewById(R.id.blockValue);
         TextView unblockValueTextView = findViewById(R.id.unblockValue);
 
-        blockValueTextView.setText(persistedConfiguration.nearThreshold);
-        unblockValueTextView.setText(persistedConfiguration.farThreshold);
+        mPlotView = findViewById(R.id.sensorPlot);
+
+        if (persistedConfiguration != null) {
+            blockValueTextView.setText(String.valueOf(persistedConfiguration.nearThreshold));
+            unblockValueTextView.setText(String.valueOf(persistedConfiguration.farThreshold));
+            mPlotView.setThresholds(persistedConfiguration.nearThreshold, persistedConfiguration.farThreshold);
+        }
 
-        getProximitySensor();
-        setupSensorStateListener();
-        startSensorMonitor();
+        final int samplePeriodMs = Math.max(1, getIntent().getIntExtra(EXTRA_SAMPLE_PERIOD_MS, DEFAULT_SAMPLE_PERIOD_MS));
+        mRawSeries = new TimeSeriesBuffer(SERIES_CAPACITY,
+                (int) Math.max(1, SERIES_DURATION_MS / ((long) samplePeriodMs * SERIES_CAPACITY)));
+        mSampler = new ContinuousSensorSampler(mSensorSource, samplePeriodMs, mSampleListener);
+
+        mEventIngestor = new ProximityEventIngestor((SensorManager) getSystemService(SENSOR_SERVICE),
+                EVENT_CAPACITY, SensorManager.SENSOR_DELAY_NORMAL, EVENT_MAX_REPORT_LATENCY_US);
+        mPlotView.setData(mRawSeries, mEventSeries, mHistogram,
+                ProximitySensorHelper.READ_MIN_LIMIT, ProximitySensorHelper.READ_MAX_LIMIT,
+                mEventIngestor.isAvailable() ? mEventIngestor.getMaximumRange() : 1);
     }
 
-    private final Runnable mSensorMonitor = new Runnable() {
+    /**
+     * Called on the sampling thread for each sample.
+     */
+    private final ContinuousSensorSampler.Listener mSampleListener = new ContinuousSensorSampler.Listener() {
         @Override
-        public void run() {
-            try {
-                sensorValue = ProximitySensorHelper.read();
-                Log.i(DiagnosticsActivity.class.getName(), String.valueOf(sensorValue));
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mSensorValueTextView.setText(String.valueOf(sensorValue));
-                    }
-                });
-            } finally {
-                mHandler.post(mSensorMonitor);
+        public void onSample(int value, long timestampNanos) {
+            mStatistics.offer(value, timestampNanos, ProximitySensorHelper.READ_MIN_LIMIT, ProximitySensorHelper.READ_MAX_LIMIT);
+            Log.i(TAG, value + " " + mStatistics);
+
+            if (value >= 0) {
+                mRawSeries.add(value, timestampNanos);
+                mHistogram.add(value);
             }
 
+            mSensorValue = value;
+            requestFrameUpdate();
         }
     };
 
-    void startSensorMonitor() {
-        mSensorMonitor.run();
+    /**
+     * Request the UI to be updated on the next frame, from any thread.
+     */
+    private void requestFrameUpdate() {
+        if (mFrameUpdatePending.compareAndSet(false, true)) {
+            mHandler.post(mScheduleFrameUpdate);
+        }
     }
 
-    private void stopSensorMonitor() {
-        mHandler.removeCallbacks(mSensorMonitor);
-    }
+    /**
+     * Called on the event ingestion thread for each proximity event.
+     */
+    private final ProximityEventIngestor.Listener mEventListener = new ProximityEventIngestor.Listener() {
+        @Override
+        public void onProximityEvent(float value, long timestampNanos) {
+            mEventSeries.add(value, timestampNanos);
 
+            mSensorTriggered = value < 0.1;
+            mHasProximityEvent = true;
+            requestFrameUpdate();
+        }
+    };
 
-    @Override
-    protected void onDestroy() {
-        mSensorChangeCount = 0;
-        mSensorManager.unregisterListener(mSensorEventListener);
-        mSensorEventListener = null;
-        stopSensorMonitor();
-        super.onDestroy();
-    }
+    private final Runnable mScheduleFrameUpdate = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameUpdate);
+        }
+    };
 
-    private void onSensorChange(SensorEvent event) {
-        mSensorChangeCount++;
-        ((TextView) findViewById(R.id.proximity_sensor_state_text)).setText(event.values[0] < 0.1 ? "Triggered" : "Not triggered");
-        Log.i("SENSOR", "Callback called");
-        if (mSensorChangeCount > 5) {
-            Log.i("SENSOR", "Proximity changed");
+    /**
+     * Update the UI with the last sample, at most once per frame however fast the samples come.
+     */
+    private final Choreographer.FrameCallback mFrameUpdate = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameUpdatePending.set(false);
+            mSensorValueTextView.setText(String.valueOf(mSensorValue));
+            updateSensorStateView();
+            mPlotView.invalidate();
         }
-    }
+    };
 
-    private void getProximitySensor() {
-        mSensorManager = (SensorManager)getSystemService(SENSOR_SERVICE);
-        mProximitySensor = mSensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY);
-        if (mProximitySensor == null) {
-            // TODO do something clever
+    private void updateSensorStateView() {
+        if (!mHasProximityEvent) {
+            mSensorStateTextView.setText(R.string.no_proximity_event);
+        } else {
+            mSensorStateTextView.setText(mSensorTriggered ? R.string.triggered : R.string.not_triggered);
         }
     }
 
-    private void setupSensorStateListener() {
-        mSensorEventListener = new SensorEventListener() {
-            @Override
-            public void onSensorChanged(SensorEvent event) {
-                if (event.sensor.getType() == Sensor.TYPE_PROXIMITY) {
-                    onSensorChange(event);
-
-                }
-            }
-
-            @Override
-            public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mSampler.start();
+
+        mHasProximityEvent = false;
+        updateSensorStateView();
+        if (!mEventIngestor.start(mEventListener)) {
+            Log.w(TAG, "No proximity sensor available");
+        }
+    }
 
-            }
-        };
-        mSensorManager.registerListener(mSensorEventListener, mProximitySensor, 100);
+    @Override
+    protected void onPause() {
+        mSampler.stop();
+        mEventIngestor.stop();
+        Log.i(TAG, "Proximity events " + mEventIngestor);
+        mHandler.removeCallbacks(mScheduleFrameUpdate);
+        Choreographer.getInstance().removeFrameCallback(mFrameUpdate);
+        mFrameUpdatePending.set(false);
+        super.onPause();
     }
 
+    @Override
+    protected void onDestroy() {
+        mSensorSource.release();
+        super.onDestroy();
+    }
 }
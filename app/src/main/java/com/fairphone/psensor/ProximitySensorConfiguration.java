@@ -2,11 +2,16 @@ package com.fairphone.psensor;
 
 import android.util.Log;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Locale;
 
 /**
@@ -71,19 +76,59 @@ public class ProximitySensorConfiguration {
     /**
      * Path to the persisted calibration file.
      */
-    private static final String CALIBRATION_FILE = "/persist/sns.reg";
+    static final String CALIBRATION_FILE = "/persist/sns.reg";
     /**
-     * Offset in the calibration file to reach the offset compensation value.
+     * Registry entries of the values, in the calibration file.
      */
-    private static final int OFFSET_COMPENSATION_OFFSET = 0x00000120 + 8;
+    private static final SensorRegistry.Entry[] FIELDS = {
+            SensorRegistry.PROXIMITY_OFFSET_COMPENSATION,
+            SensorRegistry.PROXIMITY_NEAR_THRESHOLD,
+            SensorRegistry.PROXIMITY_FAR_THRESHOLD
+    };
     /**
-     * Offset in the calibration file to reach the near threshold value.
+     * Offset in the calibration file of the contiguous region holding all the values.
      */
-    private static final int NEAR_THRESHOLD_OFFSET = 0x00000100 + 4;
+    private static final int REGION_OFFSET = SensorRegistry.getSpanStart(FIELDS);
     /**
-     * Offset in the calibration file to reach the far threshold value.
+     * Length of the contiguous region holding all the values (in bytes).
      */
-    private static final int FAR_THRESHOLD_OFFSET = 0x00000100 + 6;
+    private static final int REGION_LENGTH = SensorRegistry.getSpanEnd(FIELDS) - REGION_OFFSET;
+
+    /**
+     * Flag of the offset compensation in the fields changed by a persist.
+     */
+    public static final int FIELD_OFFSET_COMPENSATION = 1;
+    /**
+     * Flag of the near threshold in the fields changed by a persist.
+     */
+    public static final int FIELD_NEAR_THRESHOLD = 1 << 1;
+    /**
+     * Flag of the far threshold in the fields changed by a persist.
+     */
+    public static final int FIELD_FAR_THRESHOLD = 1 << 2;
+    /**
+     * Result of a failed persist.
+     */
+    public static final int PERSIST_FAILED = -1;
+
+    /**
+     * Result of a recovery: there was no interrupted persist to recover from, or it had not touched the calibration
+     * file yet.
+     */
+    public static final int RECOVERY_NONE = 0;
+    /**
+     * Result of a recovery: the interrupted persist had completed its write, which is kept.
+     */
+    public static final int RECOVERY_ROLLED_FORWARD = 1;
+    /**
+     * Result of a recovery: the interrupted persist had partially written the calibration file, which is restored to
+     * its previous content.
+     */
+    public static final int RECOVERY_RESTORED = 2;
+    /**
+     * Result of a failed recovery, the shadow file is kept to try again.
+     */
+    public static final int RECOVERY_FAILED = -1;
 
     /**
      * The proximity sensor offset compensation.
@@ -111,6 +156,17 @@ public class ProximitySensorConfiguration {
         farThreshold = DEFAULT_FAR_THRESHOLD;
     }
 
+    /**
+     * Copy constructor.
+     *
+     * @param configuration The configuration to copy.
+     */
+    public ProximitySensorConfiguration(ProximitySensorConfiguration configuration) {
+        offsetCompensation = configuration.offsetCompensation;
+        nearThreshold = configuration.nearThreshold;
+        farThreshold = configuration.farThreshold;
+    }
+
     public String toString() {
         return String.format(Locale.ENGLISH, "{offset compensation=%d, near threshold=%d, far threshold=%d}", offsetCompensation, nearThreshold, farThreshold);
     }
@@ -132,27 +188,27 @@ public class ProximitySensorConfiguration {
      * @return The persisted configuration or <code>null</code> if not accessible.
      */
     public static ProximitySensorConfiguration readFromMemory() {
-        ProximitySensorConfiguration configuration = new ProximitySensorConfiguration();
-
-        try {
-            byte[] buffer = new byte[4];
-            RandomAccessFile file = new RandomAccessFile(CALIBRATION_FILE, "r");
-
-            file.seek(OFFSET_COMPENSATION_OFFSET);
-            file.read(buffer, 0, 2);
-            configuration.offsetCompensation = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN).getInt();
-
-            file.seek(NEAR_THRESHOLD_OFFSET);
-            file.read(buffer, 0, 2);
-            configuration.nearThreshold = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        return readFromMemory(new File(CALIBRATION_FILE));
+    }
 
-            file.seek(FAR_THRESHOLD_OFFSET);
-            file.read(buffer, 0, 2);
-            configuration.farThreshold = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    /**
+     * Read the configuration persisted into a calibration file. <br>
+     * <br>
+     * The calibration file is read at once as a {@link SensorRegistry} and the values are decoded from its index (see
+     * {@link #fromRegistry(SensorRegistry)}).
+     *
+     * @param calibrationFile The calibration file to read from.
+     * @return The persisted configuration or <code>null</code> if not accessible.
+     */
+    public static ProximitySensorConfiguration readFromMemory(File calibrationFile) {
+        ProximitySensorConfiguration configuration;
 
-            file.close();
+        try {
+            configuration = fromRegistry(SensorRegistry.read(calibrationFile));
 
-            Log.d(TAG, "Configuration " + configuration.toString() + " read from `" + CALIBRATION_FILE + "`");
+            if (configuration != null) {
+                Log.d(TAG, "Configuration " + configuration.toString() + " read from `" + calibrationFile + "`");
+            }
         } catch (Exception e) {
             Log.wtf(TAG, e);
 
@@ -163,20 +219,151 @@ public class ProximitySensorConfiguration {
     }
 
     /**
-     * Persist the configuration into memory. <br>
+     * Extract the configuration from a registry already read.
+     *
+     * @param registry The registry.
+     * @return The configuration or <code>null</code> if the registry does not hold all the values.
+     */
+    public static ProximitySensorConfiguration fromRegistry(SensorRegistry registry) {
+        for (SensorRegistry.Entry field : FIELDS) {
+            if (!registry.contains(field)) {
+                Log.w(TAG, "Registry does not hold " + field);
+                return null;
+            }
+        }
+
+        final ProximitySensorConfiguration configuration = new ProximitySensorConfiguration();
+        configuration.offsetCompensation = (int) registry.getValue(SensorRegistry.PROXIMITY_OFFSET_COMPENSATION);
+        configuration.nearThreshold = (int) registry.getValue(SensorRegistry.PROXIMITY_NEAR_THRESHOLD);
+        configuration.farThreshold = (int) registry.getValue(SensorRegistry.PROXIMITY_FAR_THRESHOLD);
+
+        return configuration;
+    }
+
+    /**
+     * Read the region holding all the values with positional reads, leaving the channel position untouched.
+     *
+     * @param channel The channel to the calibration file.
+     * @return The region, in little-endian order, indexed from {@link #REGION_OFFSET}.
+     * @throws IOException if the file could not be read or is too short.
+     */
+    private static ByteBuffer readRegion(FileChannel channel) throws IOException {
+        final ByteBuffer region = ByteBuffer.allocate(REGION_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (region.hasRemaining()) {
+            if (channel.read(region, REGION_OFFSET + region.position()) < 0) {
+                throw new EOFException("Calibration file shorter than " + (REGION_OFFSET + REGION_LENGTH) + " bytes");
+            }
+        }
+        region.clear();
+
+        return region;
+    }
+
+    /**
+     * @param region The region holding all the values.
+     * @param field The registry entry of the value.
+     * @return The unsigned value.
+     */
+    private static int getField(ByteBuffer region, SensorRegistry.Entry field) {
+        return (int) SensorRegistry.getUnsigned(region, field.offset - REGION_OFFSET, field.width);
+    }
+
+    /**
+     * @param region The region holding all the values.
+     * @param field The registry entry of the value.
+     * @param value The unsigned value.
+     */
+    private static void putField(ByteBuffer region, SensorRegistry.Entry field, int value) {
+        SensorRegistry.putUnsigned(region, field.offset - REGION_OFFSET, field.width, value);
+    }
+
+    /**
+     * Persist the configuration into memory, without shadow copy.
+     *
+     * @throws IllegalArgumentException if one of the configuration element does not respect the acceptable range.
+     * @return <code>true</code> if the configuration could be persisted, <code>false</code> if it failed.
+     * @see #persistToMemory(File, File)
+     */
+    public boolean persistToMemory() throws IllegalArgumentException {
+        return persistToMemory(new File(CALIBRATION_FILE), null);
+    }
+
+    /**
+     * Persist the configuration into memory.
+     *
+     * @param shadowFile The file to keep the shadow copy in or <code>null</code> for no shadow copy.
+     * @throws IllegalArgumentException if one of the configuration element does not respect the acceptable range.
+     * @return <code>true</code> if the configuration could be persisted, <code>false</code> if it failed.
+     * @see #persistToMemory(File, File)
+     */
+    public boolean persistToMemory(File shadowFile) throws IllegalArgumentException {
+        return persistToMemory(new File(CALIBRATION_FILE), shadowFile);
+    }
+
+    /**
+     * Persist the configuration into a calibration file. <br>
      * <br>
      * This method <strong>does not</strong> update the current configuration of the proximity sensor. It does set the
-     * values that live in the <code>/persist/</code> directory only.
+     * values that live in the <code>/persist/</code> directory only. <br>
+     * <br>
+     * The write is transactional:
+     * <ol>
+     * <li>The region holding all the values is read and the values are patched into it. If requested, the content from
+     * before and after the patch is saved and synced to a shadow file.</li>
+     * <li>The region is written back at once and synced to the storage.</li>
+     * <li>The region is read back and compared to what was written.</li>
+     * <li>On success, the shadow file is deleted. On failure, the previous content is written back.</li>
+     * </ol>
+     * A shadow file left behind means that the device lost power while persisting; see
+     * {@link #recoverFromShadow(File, File)}.
      *
+     * @param calibrationFile The calibration file to write to.
+     * @param shadowFile The file to keep the shadow copy in or <code>null</code> for no shadow copy.
      * @throws IllegalArgumentException if one of the configuration element does not respect the acceptable range
      * (see {@link #MIN_OFFSET_COMPENSATION}, {@link #MAX_OFFSET_COMPENSATION}, {@link #MIN_NEAR_THRESHOLD},
      * {@link #MAX_NEAR_THRESHOLD}, {@link #MIN_FAR_THRESHOLD}, and {@link #MAX_FAR_THRESHOLD}).
      * @return <code>true</code> if the configuration could be persisted, <code>false</code> if it failed.
      */
-    public boolean persistToMemory() throws IllegalArgumentException {
-        boolean success = false;
-        byte[] buffer;
+    public boolean persistToMemory(File calibrationFile, File shadowFile) throws IllegalArgumentException {
+        return persist(calibrationFile, shadowFile, false) != PERSIST_FAILED;
+    }
+
+    /**
+     * Persist only the values that differ from the ones in memory.
+     *
+     * @param shadowFile The file to keep the shadow copy in or <code>null</code> for no shadow copy.
+     * @throws IllegalArgumentException if one of the configuration element does not respect the acceptable range.
+     * @return The fields changed or {@link #PERSIST_FAILED} if it failed.
+     * @see #persistChangesToMemory(File, File)
+     */
+    public int persistChangesToMemory(File shadowFile) throws IllegalArgumentException {
+        return persistChangesToMemory(new File(CALIBRATION_FILE), shadowFile);
+    }
+
+    /**
+     * Persist only the values that differ from the ones in a calibration file. <br>
+     * <br>
+     * The values are compared to the ones read at the beginning of the transaction (see
+     * {@link #persistToMemory(File, File)}) and only the changed values are written, each with its own positional
+     * write, the unchanged bytes around them are left untouched. Nothing is written, not even the shadow copy, if no
+     * value changed.
+     *
+     * @param calibrationFile The calibration file to write to.
+     * @param shadowFile The file to keep the shadow copy in or <code>null</code> for no shadow copy.
+     * @throws IllegalArgumentException if one of the configuration element does not respect the acceptable range.
+     * @return The fields changed (combination of {@link #FIELD_OFFSET_COMPENSATION}, {@link #FIELD_NEAR_THRESHOLD},
+     * and {@link #FIELD_FAR_THRESHOLD}), <code>0</code> if no value changed, or {@link #PERSIST_FAILED} if it failed.
+     */
+    public int persistChangesToMemory(File calibrationFile, File shadowFile) throws IllegalArgumentException {
+        return persist(calibrationFile, shadowFile, true);
+    }
+
+    private int persist(File calibrationFile, File shadowFile, boolean changesOnly) throws IllegalArgumentException {
+        int changedFields = PERSIST_FAILED;
         RandomAccessFile file = null;
+        byte[] previousRegion = null;
+        boolean regionWritten = false;
 
         if (offsetCompensation < MIN_OFFSET_COMPENSATION || MAX_OFFSET_COMPENSATION < offsetCompensation) {
             throw new IllegalArgumentException(String.format(Locale.ENGLISH, "Offset compensation (%d) not in the acceptable range [%d;%d]", offsetCompensation, MIN_OFFSET_COMPENSATION, MAX_OFFSET_COMPENSATION));
@@ -187,26 +374,53 @@ public class ProximitySensorConfiguration {
         }
 
         try {
-            file = new RandomAccessFile(CALIBRATION_FILE, "rw");
+            file = new RandomAccessFile(calibrationFile, "rw");
+            final FileChannel channel = file.getChannel();
 
-            file.seek(OFFSET_COMPENSATION_OFFSET);
-            buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(offsetCompensation).array();
-            file.write(buffer, 0, 2);
+            final ByteBuffer region = readRegion(channel);
+            final int fields = getChangedFields(region);
 
-            file.seek(NEAR_THRESHOLD_OFFSET);
-            buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(nearThreshold).array();
-            file.write(buffer, 0, 2);
+            if (changesOnly && fields == 0) {
+                Log.d(TAG, "Configuration " + this.toString() + " already persisted to `" + calibrationFile + "`");
 
-            file.seek(FAR_THRESHOLD_OFFSET);
-            buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(farThreshold).array();
-            file.write(buffer, 0, 2);
+                changedFields = 0;
+                return changedFields;
+            }
 
-            file.close();
-            success = true;
+            previousRegion = region.array().clone();
 
-            Log.d(TAG, "Configuration " + this.toString() + " persisted to `" + CALIBRATION_FILE + "`");
+            putField(region, SensorRegistry.PROXIMITY_OFFSET_COMPENSATION, offsetCompensation);
+            putField(region, SensorRegistry.PROXIMITY_NEAR_THRESHOLD, nearThreshold);
+            putField(region, SensorRegistry.PROXIMITY_FAR_THRESHOLD, farThreshold);
+
+            if (shadowFile != null) {
+                writeShadow(shadowFile, previousRegion, region.array());
+            }
+            regionWritten = true;
+            if (changesOnly) {
+                writeFields(channel, region, getFields(fields));
+            } else {
+                writeRegion(channel, region);
+            }
+
+            if (!readRegion(channel).equals(region)) {
+                throw new IOException("Configuration read back from `" + calibrationFile + "` differs from the one written");
+            }
+
+            changedFields = fields;
+            if (shadowFile != null) {
+                deleteShadow(shadowFile);
+            }
+
+            Log.d(TAG, "Configuration " + this.toString() + " persisted to `" + calibrationFile + "`, changed fields=" + changedFields);
         } catch (Exception e) {
             Log.wtf(TAG, e);
+
+            if (regionWritten) {
+                rollBack(file.getChannel(), previousRegion, shadowFile);
+            } else if (shadowFile != null && shadowFile.exists()) {
+                deleteShadow(shadowFile);
+            }
         } finally {
             if (file != null) {
                 try {
@@ -214,9 +428,250 @@ public class ProximitySensorConfiguration {
                 } catch (IOException e) {
                     // fall-through
                 }
+
+                if (previousRegion != null) {
+                    ProximitySensorConfigurationCache.invalidate();
+                }
             }
         }
 
-        return success;
+        return changedFields;
+    }
+
+    /**
+     * @param region The region holding all the values.
+     * @return The fields whose value in the region differs from this configuration.
+     */
+    private int getChangedFields(ByteBuffer region) {
+        int fields = 0;
+
+        if (getField(region, SensorRegistry.PROXIMITY_OFFSET_COMPENSATION) != offsetCompensation) {
+            fields |= FIELD_OFFSET_COMPENSATION;
+        }
+        if (getField(region, SensorRegistry.PROXIMITY_NEAR_THRESHOLD) != nearThreshold) {
+            fields |= FIELD_NEAR_THRESHOLD;
+        }
+        if (getField(region, SensorRegistry.PROXIMITY_FAR_THRESHOLD) != farThreshold) {
+            fields |= FIELD_FAR_THRESHOLD;
+        }
+
+        return fields;
+    }
+
+    /**
+     * @param fields A non-empty combination of field flags.
+     * @return The registry entries of the fields.
+     */
+    private static SensorRegistry.Entry[] getFields(int fields) {
+        final SensorRegistry.Entry[] entries = new SensorRegistry.Entry[Integer.bitCount(fields)];
+        int i = 0;
+
+        if ((fields & FIELD_OFFSET_COMPENSATION) != 0) {
+            entries[i++] = SensorRegistry.PROXIMITY_OFFSET_COMPENSATION;
+        }
+        if ((fields & FIELD_NEAR_THRESHOLD) != 0) {
+            entries[i++] = SensorRegistry.PROXIMITY_NEAR_THRESHOLD;
+        }
+        if ((fields & FIELD_FAR_THRESHOLD) != 0) {
+            entries[i] = SensorRegistry.PROXIMITY_FAR_THRESHOLD;
+        }
+
+        return entries;
+    }
+
+    /**
+     * Recover the calibration file from a shadow file left behind by an interrupted
+     * {@link #persistToMemory(File, File)}, e.g. because the device lost power. <br>
+     * <br>
+     * The shadow file holds the content of the region from before and after the interrupted write:
+     * <ul>
+     * <li>If the calibration file already holds the content after the write, the write completed and is kept (rolled
+     * forward).</li>
+     * <li>If it still holds the content from before the write, it had not been touched yet.</li>
+     * <li>Otherwise, it is restored to its previous, consistent, content.</li>
+     * </ul>
+     * An incomplete shadow file means that the calibration file had not been touched yet either; it is simply
+     * deleted. The shadow file is only kept if the recovery failed, to try again later.
+     *
+     * @param calibrationFile The calibration file to recover.
+     * @param shadowFile The shadow file.
+     * @return {@link #RECOVERY_NONE}, {@link #RECOVERY_ROLLED_FORWARD}, {@link #RECOVERY_RESTORED}, or
+     * {@link #RECOVERY_FAILED}.
+     */
+    public static int recoverFromShadow(File calibrationFile, File shadowFile) {
+        if (!shadowFile.exists()) {
+            return RECOVERY_NONE;
+        }
+
+        if (shadowFile.length() != 2 * REGION_LENGTH) {
+            Log.w(TAG, "Incomplete shadow file `" + shadowFile + "`, calibration file left untouched");
+            deleteShadow(shadowFile);
+
+            return RECOVERY_NONE;
+        }
+
+        int recovery = RECOVERY_FAILED;
+        RandomAccessFile file = null;
+
+        try {
+            final byte[] shadow = new byte[2 * REGION_LENGTH];
+            final FileInputStream stream = new FileInputStream(shadowFile);
+            try {
+                int length = 0;
+                int read;
+                while (length < shadow.length && (read = stream.read(shadow, length, shadow.length - length)) > 0) {
+                    length += read;
+                }
+                if (length != shadow.length) {
+                    throw new EOFException("Shadow file `" + shadowFile + "` shorter than " + shadow.length + " bytes");
+                }
+            } finally {
+                stream.close();
+            }
+
+            final ByteBuffer previousRegion = ByteBuffer.wrap(shadow, 0, REGION_LENGTH).slice();
+            final ByteBuffer targetRegion = ByteBuffer.wrap(shadow, REGION_LENGTH, REGION_LENGTH).slice();
+
+            file = new RandomAccessFile(calibrationFile, "rw");
+            final ByteBuffer region = readRegion(file.getChannel());
+
+            if (region.equals(targetRegion)) {
+                recovery = RECOVERY_ROLLED_FORWARD;
+                Log.i(TAG, "Configuration in `" + calibrationFile + "` verified against shadow file `" + shadowFile + "`, kept");
+            } else if (region.equals(previousRegion)) {
+                recovery = RECOVERY_NONE;
+                Log.i(TAG, "Configuration in `" + calibrationFile + "` untouched, shadow file `" + shadowFile + "` dropped");
+            } else {
+                writeRegion(file.getChannel(), ByteBuffer.wrap(Arrays.copyOf(shadow, REGION_LENGTH)));
+                if (!readRegion(file.getChannel()).equals(previousRegion)) {
+                    throw new IOException("Configuration read back from `" + calibrationFile + "` differs from the one restored");
+                }
+                recovery = RECOVERY_RESTORED;
+                Log.i(TAG, "Configuration restored to `" + calibrationFile + "` from shadow file `" + shadowFile + "`");
+            }
+
+            deleteShadow(shadowFile);
+        } catch (Exception e) {
+            Log.wtf(TAG, e);
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // fall-through
+                }
+
+                ProximitySensorConfigurationCache.invalidate();
+            }
+        }
+
+        return recovery;
+    }
+
+    /**
+     * Recover the calibration file from a shadow file.
+     *
+     * @param shadowFile The shadow file.
+     * @return {@link #RECOVERY_NONE}, {@link #RECOVERY_ROLLED_FORWARD}, {@link #RECOVERY_RESTORED}, or
+     * {@link #RECOVERY_FAILED}.
+     * @see #recoverFromShadow(File, File)
+     */
+    public static int recoverFromShadow(File shadowFile) {
+        return recoverFromShadow(new File(CALIBRATION_FILE), shadowFile);
+    }
+
+    /**
+     * Write the region holding all the values back with positional writes and sync it to the storage.
+     *
+     * @param channel The channel to the calibration file.
+     * @param region The region, indexed from {@link #REGION_OFFSET}.
+     * @throws IOException if the file could not be written.
+     */
+    private static void writeRegion(FileChannel channel, ByteBuffer region) throws IOException {
+        writeRegion(channel, region, 0, REGION_LENGTH);
+    }
+
+    /**
+     * Write a span of the region holding all the values back with positional writes and sync it to the storage.
+     *
+     * @param channel The channel to the calibration file.
+     * @param region The region, indexed from {@link #REGION_OFFSET}.
+     * @param start The start of the span in the region (inclusive).
+     * @param end The end of the span in the region (exclusive).
+     * @throws IOException if the file could not be written.
+     */
+    private static void writeRegion(FileChannel channel, ByteBuffer region, int start, int end) throws IOException {
+        writeSpan(channel, region, start, end);
+
+        /* The file size does not change, only the content needs to be synced. */
+        channel.force(false);
+    }
+
+    /**
+     * Write some values of the region back, each with its own positional write, and sync them to the storage at once.
+     *
+     * @param channel The channel to the calibration file.
+     * @param region The region, indexed from {@link #REGION_OFFSET}.
+     * @param fields The registry entries of the values to write.
+     * @throws IOException if the file could not be written.
+     */
+    private static void writeFields(FileChannel channel, ByteBuffer region, SensorRegistry.Entry[] fields) throws IOException {
+        for (SensorRegistry.Entry field : fields) {
+            writeSpan(channel, region, field.offset - REGION_OFFSET, field.getEnd() - REGION_OFFSET);
+        }
+
+        channel.force(false);
+    }
+
+    private static void writeSpan(FileChannel channel, ByteBuffer region, int start, int end) throws IOException {
+        region.limit(end).position(start);
+        while (region.hasRemaining()) {
+            channel.write(region, REGION_OFFSET + region.position());
+        }
+        region.clear();
+    }
+
+    /**
+     * Save the region content from before and after the write to a shadow file and sync it to the storage before
+     * anything else is written.
+     *
+     * @param shadowFile The shadow file.
+     * @param previousRegion The region content before the write.
+     * @param targetRegion The region content after the write.
+     * @throws IOException if the shadow file could not be written.
+     */
+    private static void writeShadow(File shadowFile, byte[] previousRegion, byte[] targetRegion) throws IOException {
+        final FileOutputStream stream = new FileOutputStream(shadowFile);
+
+        try {
+            stream.write(previousRegion);
+            stream.write(targetRegion);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Write the previous region content back after a failed write. <br>
+     * <br>
+     * If that fails too, the shadow file (if any) is kept to recover at the next boot.
+     */
+    private static void rollBack(FileChannel channel, byte[] previousRegion, File shadowFile) {
+        try {
+            writeRegion(channel, ByteBuffer.wrap(previousRegion));
+
+            if (shadowFile != null) {
+                deleteShadow(shadowFile);
+            }
+        } catch (IOException e) {
+            Log.wtf(TAG, e);
+        }
+    }
+
+    private static void deleteShadow(File shadowFile) {
+        if (!shadowFile.delete()) {
+            Log.w(TAG, "Could not delete shadow file `" + shadowFile + "`");
+        }
     }
 }
@@ -0,0 +1,120 @@
+package com.fairphone.psensor;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Process-wide cache of the sensors registry, of the persisted proximity sensor configuration, and of the
+ * calibration file capabilities. <br>
+ * <br>
+ * The cached entries are validated against the last modification time and the size of the calibration file, which
+ * only costs a metadata lookup, and are invalidated whenever the app writes to the calibration file. Repeated status
+ * checks therefore neither open nor read the file as long as it did not change. <br>
+ * <br>
+ * Permission changes on the calibration file do not touch its modification time; they are only noticed after
+ * {@link #invalidate()} or a change of the file content.
+ */
+public final class ProximitySensorConfigurationCache {
+    private static final String TAG = ProximitySensorConfigurationCache.class.getSimpleName();
+
+    private static final File sCalibrationFile = new File(ProximitySensorConfiguration.CALIBRATION_FILE);
+
+    /**
+     * Whether the cached entries are valid.
+     */
+    private static boolean sValid;
+    private static long sLastModified;
+    private static long sLength;
+
+    private static boolean sReadableAndWritable;
+    /**
+     * Whether {@link #sRegistry} and {@link #sConfiguration} have been read since the last validation.
+     */
+    private static boolean sRegistryRead;
+    private static SensorRegistry sRegistry;
+    private static ProximitySensorConfiguration sConfiguration;
+
+    /**
+     * Empty constructor to avoid instantiation.
+     */
+    private ProximitySensorConfigurationCache() {
+    }
+
+    /**
+     * Cached version of {@link ProximitySensorConfiguration#canReadFromAndPersistToMemory()}.
+     *
+     * @return <code>true</code> if the memory is both readable and writable, <code>false</code> if not.
+     */
+    public static synchronized boolean canReadFromAndPersistToMemory() {
+        validate();
+
+        return sReadableAndWritable;
+    }
+
+    /**
+     * Cached version of {@link ProximitySensorConfiguration#readFromMemory()}.
+     *
+     * @return A copy of the persisted configuration, free to modify, or <code>null</code> if not accessible.
+     */
+    public static synchronized ProximitySensorConfiguration readFromMemory() {
+        readRegistry();
+
+        return (sConfiguration != null) ? new ProximitySensorConfiguration(sConfiguration) : null;
+    }
+
+    /**
+     * Read the whole sensors registry, shared by every consumer until the file changes.
+     *
+     * @return The registry or <code>null</code> if not accessible.
+     */
+    public static synchronized SensorRegistry getRegistry() {
+        readRegistry();
+
+        return sRegistry;
+    }
+
+    /**
+     * Drop the cached entries, e.g. after the calibration file was written.
+     */
+    public static synchronized void invalidate() {
+        sValid = false;
+        sRegistryRead = false;
+        sRegistry = null;
+        sConfiguration = null;
+    }
+
+    private static void validate() {
+        final long lastModified = sCalibrationFile.lastModified();
+        final long length = sCalibrationFile.length();
+
+        if (sValid && lastModified == sLastModified && length == sLength) {
+            return;
+        }
+
+        invalidate();
+        sLastModified = lastModified;
+        sLength = length;
+        sReadableAndWritable = ProximitySensorConfiguration.canReadFromAndPersistToMemory();
+        sValid = true;
+    }
+
+    private static void readRegistry() {
+        validate();
+
+        if (sRegistryRead) {
+            return;
+        }
+
+        try {
+            sRegistry = SensorRegistry.read(sCalibrationFile);
+            sConfiguration = ProximitySensorConfiguration.fromRegistry(sRegistry);
+
+            Log.d(TAG, "Registry " + sRegistry + " read from `" + sCalibrationFile + "`");
+        } catch (IOException e) {
+            Log.wtf(TAG, e);
+        }
+        sRegistryRead = true;
+    }
+}
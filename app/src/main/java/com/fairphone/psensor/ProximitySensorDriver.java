@@ -0,0 +1,220 @@
+package com.fairphone.psensor;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Configuration of the running proximity sensor driver through kernel attributes (e.g. sysfs). <br>
+ * <br>
+ * The driver exposes one attribute per value in a directory, holding the value as ASCII decimal digits. Unlike
+ * {@link ProximitySensorConfiguration#persistToMemory()}, which is only read by the driver at boot, the values written
+ * here take effect right away but are lost at reboot: a configuration is both persisted and applied to avoid the
+ * reboot. <br>
+ * <br>
+ * The directory is configurable (see {@link R.string#config_proximity_sensor_driver_directory}), so that any
+ * directory holding the same attributes can be used instead, e.g. a fake one.
+ */
+public class ProximitySensorDriver {
+    private static final String TAG = ProximitySensorDriver.class.getSimpleName();
+
+    /**
+     * Name of the attribute holding the offset compensation.
+     */
+    public static final String ATTRIBUTE_OFFSET_COMPENSATION = "offset_compensation";
+    /**
+     * Name of the attribute holding the near threshold.
+     */
+    public static final String ATTRIBUTE_NEAR_THRESHOLD = "near_threshold";
+    /**
+     * Name of the attribute holding the far threshold.
+     */
+    public static final String ATTRIBUTE_FAR_THRESHOLD = "far_threshold";
+
+    /**
+     * Confirmation of a configuration once applied to the driver, e.g. by reading the sensor.
+     */
+    public interface Confirmation {
+        /**
+         * Called once the configuration is applied to the driver.
+         *
+         * @param configuration The configuration applied.
+         * @return A non-negative value confirming the configuration (e.g. the value read) or <code>-1</code> if it is
+         * not confirmed.
+         */
+        int confirm(ProximitySensorConfiguration configuration);
+    }
+
+    /**
+     * Maximal amount of bytes read from an attribute.
+     */
+    private static final int MAX_ATTRIBUTE_LENGTH = 32;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final File mOffsetCompensation;
+    private final File mNearThreshold;
+    private final File mFarThreshold;
+
+    /**
+     * @param directory The directory holding the attributes of the driver.
+     */
+    public ProximitySensorDriver(File directory) {
+        mOffsetCompensation = new File(directory, ATTRIBUTE_OFFSET_COMPENSATION);
+        mNearThreshold = new File(directory, ATTRIBUTE_NEAR_THRESHOLD);
+        mFarThreshold = new File(directory, ATTRIBUTE_FAR_THRESHOLD);
+    }
+
+    /**
+     * Determine whether the driver can be configured, i.e. all its attributes can be read and written.
+     *
+     * @return <code>true</code> if the driver can be configured, <code>false</code> if not.
+     */
+    public boolean isAvailable() {
+        return isReadableAndWritable(mOffsetCompensation)
+                && isReadableAndWritable(mNearThreshold)
+                && isReadableAndWritable(mFarThreshold);
+    }
+
+    /**
+     * Read the configuration the driver currently runs with.
+     *
+     * @return The configuration or <code>null</code> if it could not be read.
+     */
+    public ProximitySensorConfiguration read() {
+        final ProximitySensorConfiguration configuration = new ProximitySensorConfiguration();
+
+        try {
+            configuration.offsetCompensation = readAttribute(mOffsetCompensation);
+            configuration.nearThreshold = readAttribute(mNearThreshold);
+            configuration.farThreshold = readAttribute(mFarThreshold);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the driver configuration", e);
+
+            return null;
+        }
+
+        return configuration;
+    }
+
+    /**
+     * Determine whether the driver currently runs with a configuration.
+     *
+     * @param configuration The configuration to compare with.
+     * @return <code>true</code> if the driver configuration could be read and has the same values, <code>false</code>
+     * if not.
+     */
+    public boolean isRunning(ProximitySensorConfiguration configuration) {
+        final ProximitySensorConfiguration running = read();
+
+        return running != null
+                && running.offsetCompensation == configuration.offsetCompensation
+                && running.nearThreshold == configuration.nearThreshold
+                && running.farThreshold == configuration.farThreshold;
+    }
+
+    /**
+     * Apply a configuration to the driver and read it back. <br>
+     * <br>
+     * The offset compensation is written first, then the thresholds.
+     *
+     * @param configuration The configuration to apply.
+     * @return <code>true</code> if the driver runs with the configuration, <code>false</code> if it could not be
+     * written or the driver did not take it.
+     */
+    public boolean apply(ProximitySensorConfiguration configuration) {
+        try {
+            writeAttribute(mOffsetCompensation, configuration.offsetCompensation);
+            writeAttribute(mNearThreshold, configuration.nearThreshold);
+            writeAttribute(mFarThreshold, configuration.farThreshold);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not apply " + configuration + " to the driver", e);
+
+            return false;
+        }
+
+        final ProximitySensorConfiguration applied = read();
+        if (applied == null
+                || applied.offsetCompensation != configuration.offsetCompensation
+                || applied.nearThreshold != configuration.nearThreshold
+                || applied.farThreshold != configuration.farThreshold) {
+            Log.w(TAG, "Driver runs with " + applied + " instead of " + configuration);
+
+            return false;
+        }
+
+        Log.i(TAG, "Configuration " + configuration + " applied to the driver");
+        return true;
+    }
+
+    /**
+     * Apply a configuration to the driver and keep it only if it is confirmed. <br>
+     * <br>
+     * If the configuration cannot be applied or is not confirmed, the configuration the driver ran with before is
+     * restored (as far as it could be read).
+     *
+     * @param configuration The configuration to apply.
+     * @param confirmation The confirmation of the configuration once applied.
+     * @return The value returned by the confirmation or <code>-1</code> if the configuration could not be applied or
+     * was not confirmed.
+     */
+    public int applyAndConfirm(ProximitySensorConfiguration configuration, Confirmation confirmation) {
+        final ProximitySensorConfiguration runningConfiguration = read();
+        int value = -1;
+
+        if (apply(configuration)) {
+            value = confirmation.confirm(configuration);
+        }
+
+        if (value < 0) {
+            Log.w(TAG, "Configuration " + configuration + " not confirmed, restoring " + runningConfiguration);
+
+            if (runningConfiguration != null) {
+                apply(runningConfiguration);
+            }
+            value = -1;
+        }
+
+        return value;
+    }
+
+    private static boolean isReadableAndWritable(File attribute) {
+        return attribute.isFile() && attribute.canRead() && attribute.canWrite();
+    }
+
+    private static int readAttribute(File attribute) throws IOException {
+        final byte[] buffer = new byte[MAX_ATTRIBUTE_LENGTH];
+        final FileInputStream input = new FileInputStream(attribute);
+        int length = 0;
+
+        try {
+            int read;
+            while (length < buffer.length && (read = input.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+        } finally {
+            input.close();
+        }
+
+        try {
+            return Integer.parseInt(new String(buffer, 0, length, ASCII).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("`" + attribute + "` does not hold a number", e);
+        }
+    }
+
+    private static void writeAttribute(File attribute, int value) throws IOException {
+        // Attributes are written in a single write() call, as kernel attributes expect
+        final FileOutputStream output = new FileOutputStream(attribute);
+
+        try {
+            output.write((value + "\n").getBytes(ASCII));
+        } finally {
+            output.close();
+        }
+    }
+}
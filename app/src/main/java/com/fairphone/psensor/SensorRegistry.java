@@ -0,0 +1,286 @@
+package com.fairphone.psensor;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Read-only view over the sensors registry persisted in <code>/persist/sns.reg</code>. <br>
+ * <br>
+ * The registry is a flat binary file of little-endian unsigned values. The location of each known value is described
+ * by an {@link Entry} of the descriptor table ({@link #ENTRIES}); only the entries used by the app are documented.
+ * <br>
+ * <br>
+ * The whole file is read at once into a single buffer and indexed in a single pass over the descriptor table; values
+ * are only decoded when queried and views share the buffer, so one read serves every consumer.
+ */
+public final class SensorRegistry {
+
+    /**
+     * Descriptor of a value in the registry.
+     */
+    public static final class Entry {
+        /**
+         * Unique name of the entry.
+         */
+        public final String name;
+        /**
+         * Offset of the value in the registry (in bytes).
+         */
+        public final int offset;
+        /**
+         * Width of the value (in bytes, 1, 2, or 4).
+         */
+        public final int width;
+
+        Entry(String name, int offset, int width) {
+            if (width != 1 && width != 2 && width != 4) {
+                throw new IllegalArgumentException("Width (" + width + ") of entry `" + name + "` not supported");
+            }
+
+            this.name = name;
+            this.offset = offset;
+            this.width = width;
+        }
+
+        /**
+         * @return The offset right after the value (in bytes).
+         */
+        public int getEnd() {
+            return offset + width;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%s@0x%04X[%d]", name, offset, width);
+        }
+    }
+
+    /**
+     * The proximity sensor interrupt high threshold ("near threshold").
+     */
+    public static final Entry PROXIMITY_NEAR_THRESHOLD = new Entry("proximity_near_threshold", 0x00000100 + 4, 2);
+    /**
+     * The proximity sensor interrupt low threshold ("far threshold").
+     */
+    public static final Entry PROXIMITY_FAR_THRESHOLD = new Entry("proximity_far_threshold", 0x00000100 + 6, 2);
+    /**
+     * The proximity sensor offset compensation.
+     */
+    public static final Entry PROXIMITY_OFFSET_COMPENSATION = new Entry("proximity_offset_compensation", 0x00000120 + 8, 2);
+
+    /**
+     * The descriptor table of the known entries, by increasing offset.
+     */
+    public static final List<Entry> ENTRIES = Collections.unmodifiableList(Arrays.asList(
+            PROXIMITY_NEAR_THRESHOLD,
+            PROXIMITY_FAR_THRESHOLD,
+            PROXIMITY_OFFSET_COMPENSATION));
+
+    /**
+     * The registry content, read-only and little-endian.
+     */
+    private final ByteBuffer mContent;
+    /**
+     * The entries present in the registry, by name.
+     */
+    private final Map<String, Entry> mIndex;
+
+    private SensorRegistry(ByteBuffer content) {
+        mContent = content.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        mIndex = new LinkedHashMap<>();
+
+        for (Entry entry : ENTRIES) {
+            if (entry.getEnd() <= mContent.capacity()) {
+                mIndex.put(entry.name, entry);
+            }
+        }
+    }
+
+    /**
+     * Read a registry file at once.
+     *
+     * @param registryFile The registry file.
+     * @return The registry.
+     * @throws IOException if the file could not be read.
+     */
+    public static SensorRegistry read(File registryFile) throws IOException {
+        final FileInputStream stream = new FileInputStream(registryFile);
+
+        try {
+            final FileChannel channel = stream.getChannel();
+            final ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+
+            while (content.hasRemaining()) {
+                if (channel.read(content, content.position()) < 0) {
+                    throw new EOFException("Registry file `" + registryFile + "` truncated while reading");
+                }
+            }
+            content.clear();
+
+            return new SensorRegistry(content);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Wrap a registry content, without copying it.
+     *
+     * @param content The registry content.
+     * @return The registry.
+     */
+    public static SensorRegistry wrap(byte[] content) {
+        return new SensorRegistry(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * @return The size of the registry (in bytes).
+     */
+    public int getSize() {
+        return mContent.capacity();
+    }
+
+    /**
+     * @return The entries present in the registry, by increasing offset.
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(mIndex.values());
+    }
+
+    /**
+     * @param name The name of the entry.
+     * @return The entry or <code>null</code> if unknown or not present in the registry.
+     */
+    public Entry getEntry(String name) {
+        return mIndex.get(name);
+    }
+
+    /**
+     * @param entry The entry.
+     * @return <code>true</code> if the registry is large enough to hold the entry.
+     */
+    public boolean contains(Entry entry) {
+        return mIndex.get(entry.name) == entry;
+    }
+
+    /**
+     * @param entry The entry.
+     * @return The unsigned value of the entry.
+     * @throws IllegalArgumentException if the entry is not present in the registry.
+     */
+    public long getValue(Entry entry) throws IllegalArgumentException {
+        checkContains(entry);
+
+        return getUnsigned(mContent, entry.offset, entry.width);
+    }
+
+    /**
+     * @param entry The entry.
+     * @return A read-only little-endian view of the entry bytes, sharing the registry buffer.
+     * @throws IllegalArgumentException if the entry is not present in the registry.
+     */
+    public ByteBuffer getView(Entry entry) throws IllegalArgumentException {
+        checkContains(entry);
+
+        final ByteBuffer view = mContent.duplicate();
+        view.position(entry.offset).limit(entry.getEnd());
+
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("{size=").append(getSize());
+
+        for (Entry entry : mIndex.values()) {
+            builder.append(", ").append(entry.name).append('=').append(getUnsigned(mContent, entry.offset, entry.width));
+        }
+
+        return builder.append('}').toString();
+    }
+
+    /**
+     * @param entries The entries.
+     * @return The smallest offset of the entries.
+     */
+    static int getSpanStart(Entry... entries) {
+        int start = Integer.MAX_VALUE;
+        for (Entry entry : entries) {
+            start = Math.min(start, entry.offset);
+        }
+
+        return start;
+    }
+
+    /**
+     * @param entries The entries.
+     * @return The largest end offset of the entries.
+     */
+    static int getSpanEnd(Entry... entries) {
+        int end = 0;
+        for (Entry entry : entries) {
+            end = Math.max(end, entry.getEnd());
+        }
+
+        return end;
+    }
+
+    /**
+     * Decode an unsigned little-endian value.
+     *
+     * @param buffer The buffer, in little-endian order.
+     * @param index The index of the value in the buffer.
+     * @param width The width of the value (in bytes, 1, 2, or 4).
+     * @return The unsigned value.
+     */
+    static long getUnsigned(ByteBuffer buffer, int index, int width) {
+        switch (width) {
+            case 1:
+                return buffer.get(index) & 0xFFL;
+            case 2:
+                return buffer.getShort(index) & 0xFFFFL;
+            default:
+                return buffer.getInt(index) & 0xFFFFFFFFL;
+        }
+    }
+
+    /**
+     * Encode an unsigned little-endian value.
+     *
+     * @param buffer The buffer, in little-endian order.
+     * @param index The index of the value in the buffer.
+     * @param width The width of the value (in bytes, 1, 2, or 4).
+     * @param value The unsigned value.
+     */
+    static void putUnsigned(ByteBuffer buffer, int index, int width, long value) {
+        switch (width) {
+            case 1:
+                buffer.put(index, (byte) value);
+                break;
+            case 2:
+                buffer.putShort(index, (short) value);
+                break;
+            default:
+                buffer.putInt(index, (int) value);
+                break;
+        }
+    }
+
+    private void checkContains(Entry entry) throws IllegalArgumentException {
+        if (!contains(entry)) {
+            throw new IllegalArgumentException("Entry " + entry + " not in the registry of " + getSize() + " bytes");
+        }
+    }
+}
@@ -22,7 +22,6 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.text.Html;
@@ -34,6 +33,7 @@ import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.TextView;
 
+import com.fairphone.psensor.helpers.CalibrationState;
 import com.fairphone.psensor.helpers.CalibrationStatusHelper;
 import com.fairphone.psensor.notifications.NotificationUtils;
 
@@ -83,18 +83,11 @@ public class UpdateFinalizerActivity extends Activity implements View.OnClickLis
     }
 
     private void setAlreadyShown() {
-        SharedPreferences sharedPref = getSharedPreferences(
-                getString(R.string.preference_file_key), MODE_PRIVATE);
-
-        SharedPreferences.Editor editor = sharedPref.edit();
-        editor.putBoolean(getString(R.string.preference_already_shown),true);
-        editor.apply();
+        CalibrationState.edit(this).setAlreadyShown(true).apply();
     }
 
     private boolean wasAlreadyShown() {
-        SharedPreferences sharedPref = getSharedPreferences(
-                getString(R.string.preference_file_key), MODE_PRIVATE);
-        return sharedPref.getBoolean(getString(R.string.preference_already_shown),false);
+        return CalibrationState.get(this).alreadyShown;
     }
 
     @Override
@@ -202,17 +195,11 @@ public class UpdateFinalizerActivity extends Activity implements View.OnClickLis
     }
 
     public static void setNotShowAnymore(Context ctx, boolean doNotShowAnymore) {
-        SharedPreferences sharedPref = ctx.getSharedPreferences(
-                ctx.getString(R.string.preference_file_key), MODE_PRIVATE);
-        SharedPreferences.Editor editor = sharedPref.edit();
-        editor.putBoolean(ctx.getString(R.string.preference_do_not_show_again), doNotShowAnymore);
-        editor.apply();
+        CalibrationState.edit(ctx).setDoNotShowAgain(doNotShowAnymore).apply();
     }
 
     public static boolean isNotShowAnymore(Context ctx) {
-        SharedPreferences sharedPref = ctx.getSharedPreferences(
-                ctx.getString(R.string.preference_file_key), MODE_PRIVATE);
-        return sharedPref.getBoolean(ctx.getString(R.string.preference_do_not_show_again), false);
+        return CalibrationState.get(ctx).doNotShowAgain;
     }
 
 }
@@ -1,6 +1,7 @@
 package com.fairphone.psensor;
 
 import android.content.Context;
+import android.util.Log;
 
 import com.fairphone.psensor.helpers.CalibrationStatusHelper;
 import com.fairphone.psensor.notifications.NotificationUtils;
@@ -9,7 +10,23 @@ import com.fairphone.psensor.workers.WorkerUtils;
 
 import androidx.annotation.NonNull;
 
+import java.io.File;
+
 public class Utils {
+    private static final String TAG = Utils.class.getSimpleName();
+
+    /**
+     * Name of the shadow copy of the calibration file kept while persisting a configuration.
+     */
+    private static final String CALIBRATION_SHADOW_FILE = "sns.reg.shadow";
+
+    /**
+     * @return The file to keep the shadow copy of the calibration file in while persisting a configuration.
+     * @see ProximitySensorConfiguration#persistToMemory(File)
+     */
+    public static File getCalibrationShadowFile(@NonNull Context context) {
+        return new File(context.getFilesDir(), CALIBRATION_SHADOW_FILE);
+    }
 
     /**
      * Handle the receiver module changed action.
@@ -32,9 +49,41 @@ public class Utils {
     }
 
     /**
-     * Handle the boot completed action.
+     * Handle the boot completed action. <br>
+     * <br>
+     * The calibration file is recovered from an interrupted persist first, and the calibration state is finalized
+     * according to the outcome:
+     * <ul>
+     * <li>If the calibration file was restored to its previous content, the calibration being persisted is not in
+     * effect: the device has to be calibrated again.</li>
+     * <li>If the interrupted persist had completed its write, the calibration is in effect since this boot.</li>
+     * <li>Otherwise, a pending calibration is in effect since this boot.</li>
+     * </ul>
      */
     public static void handleBootComplete(@NonNull Context context) {
+        final int recovery = ProximitySensorConfiguration.recoverFromShadow(getCalibrationShadowFile(context));
+
+        switch (recovery) {
+            case ProximitySensorConfiguration.RECOVERY_RESTORED:
+                Log.w(TAG, "Interrupted calibration reverted, calibration needed");
+                CalibrationStatusHelper.setCalibrationReverted(context);
+                break;
+            case ProximitySensorConfiguration.RECOVERY_ROLLED_FORWARD:
+                Log.i(TAG, "Interrupted calibration completed");
+                CalibrationStatusHelper.setCalibrationSuccessfulAndCompleted(context);
+                break;
+            case ProximitySensorConfiguration.RECOVERY_FAILED:
+                /* The calibration file may be inconsistent, do not consider any pending calibration in effect. */
+                Log.wtf(TAG, "Could not recover the calibration file, calibration needed");
+                CalibrationStatusHelper.setCalibrationReverted(context);
+                break;
+            default:
+                if (CalibrationStatusHelper.isCalibrationPending(context)) {
+                    CalibrationStatusHelper.setCalibrationCompleted(context);
+                }
+                break;
+        }
+
         if (CalibrationStatusHelper.isCalibrationNeededAfterReceiverModuleChanged(context)) {
             ReceiverModuleChangedNotification.show(context);
         }
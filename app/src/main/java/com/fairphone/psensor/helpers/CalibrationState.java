@@ -0,0 +1,224 @@
+package com.fairphone.psensor.helpers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.fairphone.psensor.R;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of the calibration state persisted in the shared preferences of the app. <br>
+ * <br>
+ * The state is loaded once per process and kept in memory; reads do not touch the shared preferences anymore. Updates
+ * go through an {@link Editor} that swaps the in-memory snapshot and persists all its changes with a single
+ * <code>apply()</code>. <br>
+ * <br>
+ * Snapshots are immutable and can be shared between threads.
+ */
+public final class CalibrationState {
+
+    private static CalibrationState sState;
+    private static Keys sKeys;
+
+    /**
+     * Whether a calibration has been persisted and waits for a reboot to be effective.
+     */
+    public final boolean pendingCalibration;
+    /**
+     * Whether the device has been calibrated at one point.
+     */
+    public final boolean successfullyCalibrated;
+    /**
+     * Whether the receiver module changed since the last calibration.
+     */
+    public final boolean calibrationNeededAfterReceiverModuleChanged;
+    /**
+     * Whether the user asked not to show the update finalizer again.
+     */
+    public final boolean doNotShowAgain;
+    /**
+     * Whether the update finalizer has already been shown.
+     */
+    public final boolean alreadyShown;
+
+    private CalibrationState(boolean pendingCalibration, boolean successfullyCalibrated,
+                             boolean calibrationNeededAfterReceiverModuleChanged, boolean doNotShowAgain,
+                             boolean alreadyShown) {
+        this.pendingCalibration = pendingCalibration;
+        this.successfullyCalibrated = successfullyCalibrated;
+        this.calibrationNeededAfterReceiverModuleChanged = calibrationNeededAfterReceiverModuleChanged;
+        this.doNotShowAgain = doNotShowAgain;
+        this.alreadyShown = alreadyShown;
+    }
+
+    /**
+     * Get the current state, loaded from the shared preferences on the first call of the process.
+     *
+     * @param context The context.
+     * @return The current state.
+     */
+    public static synchronized CalibrationState get(Context context) {
+        if (sState == null) {
+            final Keys keys = getKeys(context);
+            final SharedPreferences sharedPreferences = getSharedPreferences(context);
+
+            sState = new CalibrationState(
+                    sharedPreferences.getBoolean(keys.pendingCalibration, false),
+                    sharedPreferences.getBoolean(keys.successfullyCalibrated, false),
+                    sharedPreferences.getBoolean(keys.calibrationNeededAfterReceiverModuleChanged, false),
+                    sharedPreferences.getBoolean(keys.doNotShowAgain, false),
+                    sharedPreferences.getBoolean(keys.alreadyShown, false));
+        }
+
+        return sState;
+    }
+
+    /**
+     * Start a batch of updates, only effective once {@link Editor#apply()} is called.
+     *
+     * @param context The context.
+     * @return The editor.
+     */
+    public static Editor edit(Context context) {
+        return new Editor(context.getApplicationContext());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH,
+                "{pending=%b, successfully calibrated=%b, needed after receiver module changed=%b, do not show again=%b, already shown=%b}",
+                pendingCalibration, successfullyCalibrated, calibrationNeededAfterReceiverModuleChanged,
+                doNotShowAgain, alreadyShown);
+    }
+
+    private static SharedPreferences getSharedPreferences(Context context) {
+        return context.getSharedPreferences(getKeys(context).file, Context.MODE_PRIVATE);
+    }
+
+    private static synchronized Keys getKeys(Context context) {
+        if (sKeys == null) {
+            sKeys = new Keys(context);
+        }
+
+        return sKeys;
+    }
+
+    /**
+     * Batch of updates of the calibration state.
+     */
+    public static final class Editor {
+        private final Context mContext;
+
+        private Boolean mPendingCalibration;
+        private Boolean mSuccessfullyCalibrated;
+        private Boolean mCalibrationNeededAfterReceiverModuleChanged;
+        private Boolean mDoNotShowAgain;
+        private Boolean mAlreadyShown;
+
+        private Editor(Context context) {
+            mContext = context;
+        }
+
+        public Editor setPendingCalibration(boolean pendingCalibration) {
+            mPendingCalibration = pendingCalibration;
+            return this;
+        }
+
+        public Editor setSuccessfullyCalibrated(boolean successfullyCalibrated) {
+            mSuccessfullyCalibrated = successfullyCalibrated;
+            return this;
+        }
+
+        public Editor setCalibrationNeededAfterReceiverModuleChanged(boolean calibrationNeededAfterReceiverModuleChanged) {
+            mCalibrationNeededAfterReceiverModuleChanged = calibrationNeededAfterReceiverModuleChanged;
+            return this;
+        }
+
+        public Editor setDoNotShowAgain(boolean doNotShowAgain) {
+            mDoNotShowAgain = doNotShowAgain;
+            return this;
+        }
+
+        public Editor setAlreadyShown(boolean alreadyShown) {
+            mAlreadyShown = alreadyShown;
+            return this;
+        }
+
+        /**
+         * Update the in-memory state right away and persist the changed values asynchronously, at once. <br>
+         * <br>
+         * Nothing is written if no value changed.
+         *
+         * @return The new state.
+         */
+        public CalibrationState apply() {
+            synchronized (CalibrationState.class) {
+                final CalibrationState current = get(mContext);
+                final CalibrationState updated = new CalibrationState(
+                        valueOf(mPendingCalibration, current.pendingCalibration),
+                        valueOf(mSuccessfullyCalibrated, current.successfullyCalibrated),
+                        valueOf(mCalibrationNeededAfterReceiverModuleChanged, current.calibrationNeededAfterReceiverModuleChanged),
+                        valueOf(mDoNotShowAgain, current.doNotShowAgain),
+                        valueOf(mAlreadyShown, current.alreadyShown));
+
+                final Keys keys = getKeys(mContext);
+                final SharedPreferences.Editor editor = getSharedPreferences(mContext).edit();
+                boolean changed = false;
+
+                if (updated.pendingCalibration != current.pendingCalibration) {
+                    editor.putBoolean(keys.pendingCalibration, updated.pendingCalibration);
+                    changed = true;
+                }
+                if (updated.successfullyCalibrated != current.successfullyCalibrated) {
+                    editor.putBoolean(keys.successfullyCalibrated, updated.successfullyCalibrated);
+                    changed = true;
+                }
+                if (updated.calibrationNeededAfterReceiverModuleChanged != current.calibrationNeededAfterReceiverModuleChanged) {
+                    editor.putBoolean(keys.calibrationNeededAfterReceiverModuleChanged, updated.calibrationNeededAfterReceiverModuleChanged);
+                    changed = true;
+                }
+                if (updated.doNotShowAgain != current.doNotShowAgain) {
+                    editor.putBoolean(keys.doNotShowAgain, updated.doNotShowAgain);
+                    changed = true;
+                }
+                if (updated.alreadyShown != current.alreadyShown) {
+                    editor.putBoolean(keys.alreadyShown, updated.alreadyShown);
+                    changed = true;
+                }
+
+                if (changed) {
+                    editor.apply();
+                    sState = updated;
+                }
+
+                return sState;
+            }
+        }
+
+        private static boolean valueOf(Boolean update, boolean current) {
+            return (update != null) ? update : current;
+        }
+    }
+
+    /**
+     * Names of the shared preferences file and keys, resolved once.
+     */
+    private static final class Keys {
+        final String file;
+        final String pendingCalibration;
+        final String successfullyCalibrated;
+        final String calibrationNeededAfterReceiverModuleChanged;
+        final String doNotShowAgain;
+        final String alreadyShown;
+
+        Keys(Context context) {
+            file = context.getString(R.string.preference_file_key);
+            pendingCalibration = context.getString(R.string.preference_pending_calibration);
+            successfullyCalibrated = context.getString(R.string.preference_successfully_calibrated);
+            calibrationNeededAfterReceiverModuleChanged = context.getString(R.string.preference_calibration_needed_after_receiver_module_changed);
+            doNotShowAgain = context.getString(R.string.preference_do_not_show_again);
+            alreadyShown = context.getString(R.string.preference_already_shown);
+        }
+    }
+}
@@ -1,14 +1,15 @@
 package com.fairphone.psensor.helpers;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.util.Log;
 
 import com.fairphone.psensor.ProximitySensorConfiguration;
-import com.fairphone.psensor.R;
+import com.fairphone.psensor.ProximitySensorConfigurationCache;
 
 /**
- * Helper methods to access the shared preferences of the app.
+ * Helper methods to access the calibration state of the app.
+ *
+ * @see CalibrationState
  */
 public class CalibrationStatusHelper {
 
@@ -41,16 +42,14 @@ public class CalibrationStatusHelper {
     public static boolean hasToBeCalibrated(Context context, boolean calibrateNullCompensation) {
         boolean hasToBeCalibrated;
 
-        if (ProximitySensorConfiguration.canReadFromAndPersistToMemory()) {
+        if (ProximitySensorConfigurationCache.canReadFromAndPersistToMemory()) {
             if (calibrateNullCompensation) {
-                final ProximitySensorConfiguration persistedConfiguration = ProximitySensorConfiguration.readFromMemory();
+                final ProximitySensorConfiguration persistedConfiguration = ProximitySensorConfigurationCache.readFromMemory();
                 hasToBeCalibrated = (persistedConfiguration != null) && (persistedConfiguration.offsetCompensation == 0);
 
                 if (DEBUG) Log.d(TAG, "Calibration depends on null compensation, required=" + hasToBeCalibrated);
             } else {
-                final SharedPreferences sharedPref = context.getSharedPreferences(
-                        context.getString(R.string.preference_file_key), Context.MODE_PRIVATE);
-                hasToBeCalibrated = !sharedPref.getBoolean(context.getString(R.string.preference_successfully_calibrated), false);
+                hasToBeCalibrated = !CalibrationState.get(context).successfullyCalibrated;
 
                 if (DEBUG) Log.d(TAG, "Calibration does not depend on null compensation, required=" + hasToBeCalibrated);
             }
@@ -75,62 +74,72 @@ public class CalibrationStatusHelper {
     }
 
     public static boolean isCalibrationPending(Context context) {
-        final SharedPreferences sharedPreferences = context.getSharedPreferences(
-            context.getString(R.string.preference_file_key), Context.MODE_PRIVATE);
-        return sharedPreferences.getBoolean(context.getString(R.string.preference_pending_calibration), false);
+        return CalibrationState.get(context).pendingCalibration;
     }
 
     public static void setCalibrationCompleted(Context context) {
         if (DEBUG) Log.d(TAG, "Calibration completed");
 
-        final SharedPreferences sharedPreferences = context.getSharedPreferences(
-            context.getString(R.string.preference_file_key), Context.MODE_PRIVATE);
-        final SharedPreferences.Editor editor = sharedPreferences.edit();
-
-        editor.putBoolean(
-                context.getString(R.string.preference_calibration_needed_after_receiver_module_changed), false);
-        editor.putBoolean(context.getString(R.string.preference_pending_calibration), false);
-
-        editor.apply();
+        CalibrationState.edit(context)
+                .setCalibrationNeededAfterReceiverModuleChanged(false)
+                .setPendingCalibration(false)
+                .apply();
     }
 
     public static void setCalibrationSuccessful(Context context) {
         if (DEBUG) Log.d(TAG, "Calibration process successful, now pending");
 
-        final SharedPreferences sharedPreferences = context.getSharedPreferences(
-            context.getString(R.string.preference_file_key), Context.MODE_PRIVATE);
-        final SharedPreferences.Editor editor = sharedPreferences.edit();
+        CalibrationState.edit(context)
+                .setSuccessfullyCalibrated(true)
+                .setPendingCalibration(true)
+                .apply();
+    }
+
+    /**
+     * Record a successful calibration that is already effective, i.e. that does not wait for a reboot.
+     *
+     * @param context The context.
+     */
+    public static void setCalibrationSuccessfulAndCompleted(Context context) {
+        if (DEBUG) Log.d(TAG, "Calibration process successful and completed");
+
+        CalibrationState.edit(context)
+                .setSuccessfullyCalibrated(true)
+                .setCalibrationNeededAfterReceiverModuleChanged(false)
+                .setPendingCalibration(false)
+                .apply();
+    }
 
-        editor.putBoolean(context.getString(R.string.preference_successfully_calibrated), true);
-        editor.putBoolean(context.getString(R.string.preference_pending_calibration), true);
+    /**
+     * Record that the calibration being persisted was reverted (or could not be recovered), e.g. because the device
+     * lost power while persisting it: it is neither pending nor in effect, and the device has to be calibrated again.
+     *
+     * @param context The context.
+     */
+    public static void setCalibrationReverted(Context context) {
+        if (DEBUG) Log.d(TAG, "Calibration reverted");
 
-        editor.apply();
+        CalibrationState.edit(context)
+                .setSuccessfullyCalibrated(false)
+                .setPendingCalibration(false)
+                .apply();
     }
 
     public static boolean isCalibrationNeededAfterReceiverModuleChanged(Context context) {
-        final SharedPreferences sharedPreferences = context.getSharedPreferences(
-                context.getString(R.string.preference_file_key), Context.MODE_PRIVATE);
-
-        return sharedPreferences.getBoolean(
-                context.getString(R.string.preference_calibration_needed_after_receiver_module_changed), false);
+        return CalibrationState.get(context).calibrationNeededAfterReceiverModuleChanged;
     }
 
     public static void setCalibrationNeededAfterReceiverModuleChanged(Context context) {
         if (DEBUG) Log.d(TAG, "Calibration needed because the receiver module changed");
 
-        final SharedPreferences sharedPreferences = context.getSharedPreferences(
-                context.getString(R.string.preference_file_key), Context.MODE_PRIVATE);
-        final SharedPreferences.Editor editor = sharedPreferences.edit();
-
-        editor.putBoolean(
-                context.getString(R.string.preference_calibration_needed_after_receiver_module_changed), true);
-        /*
-         * Force any previous calibration done during this session, but before this call, to be
-         * invalid. We want to make sure the pending calibration was not done before we could detect
-         * a module change.
-         */
-        editor.putBoolean(context.getString(R.string.preference_pending_calibration), false);
-
-        editor.apply();
+        CalibrationState.edit(context)
+                .setCalibrationNeededAfterReceiverModuleChanged(true)
+                /*
+                 * Force any previous calibration done during this session, but before this call, to be
+                 * invalid. We want to make sure the pending calibration was not done before we could detect
+                 * a module change.
+                 */
+                .setPendingCalibration(false)
+                .apply();
     }
 }
@@ -1,11 +1,16 @@
 package com.fairphone.psensor.helpers;
 
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.io.BufferedReader;
+import com.fairphone.psensor.sensor.ExecSensorSource;
+import com.fairphone.psensor.sensor.SampleStatistics;
+import com.fairphone.psensor.sensor.SenreadOutputParser;
+import com.fairphone.psensor.sensor.SensorSource;
+
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Helper methods to access the proximity sensor.
@@ -26,11 +31,6 @@ public class ProximitySensorHelper {
      * Command to read the sensor value.
      */
     private static final String READ_COMMAND = "/system/bin/senread";
-    /**
-     * Result prefix returned by the reading command.
-     */
-    private static final String READ_COMMAND_RESULT_PREFIX = "[RESULT]";
-
     /**
      * Amount of times to perform a sensor reading.
      */
@@ -40,6 +40,51 @@ public class ProximitySensorHelper {
      */
     private static final int READ_DELAY_MS = 500;
 
+    /**
+     * Default maximal spread (max - min) of the accepted values for an adaptive reading to stop (in sensor units).
+     */
+    public static final int ADAPTIVE_READ_TOLERANCE = 2;
+    /**
+     * Default time budget of an adaptive reading (in milliseconds).
+     */
+    public static final long ADAPTIVE_READ_MAX_DURATION_MS = 800;
+    /**
+     * Minimal amount of accepted values before an adaptive reading may stop.
+     */
+    private static final int ADAPTIVE_READ_MIN_N_TIMES = 2;
+    /**
+     * Maximal amount of times to perform a sensor reading during an adaptive reading.
+     */
+    public static final int ADAPTIVE_READ_MAX_N_TIMES = 8;
+    /**
+     * Time to wait between two sensor readings during an adaptive reading (in milliseconds).
+     */
+    private static final int ADAPTIVE_READ_DELAY_MS = 100;
+
+    /**
+     * Long-lived reader used instead of one process per sample, <code>null</code> until first needed.
+     */
+    private static SensorReaderCoprocess sReaderCoprocess;
+    /**
+     * Whether to read through {@link #sReaderCoprocess} when available.
+     */
+    private static volatile boolean sStreamingEnabled = true;
+
+    /**
+     * Parser of the output of the one-shot executions of {@link #READ_COMMAND}, reused across executions. Also used
+     * as the lock serializing them.
+     */
+    private static final SenreadOutputParser sExecParser = new SenreadOutputParser();
+    /**
+     * Values collected by {@link #sExecParser}, guarded by it.
+     */
+    private static final int[] sExecValues = new int[1];
+
+    /**
+     * Source used by the methods not taking an explicit {@link SensorSource}.
+     */
+    private static final SensorSource DEFAULT_SOURCE = new ExecSensorSource();
+
     /**
      * Empty constructor to avoid instantiation.
      */
@@ -60,29 +105,23 @@ public class ProximitySensorHelper {
     }
 
     /**
-     * Read the proximity sensor value read_times times and return the mean value. <br>
+     * Read the proximity sensor value read_times times from a source and return the mean value. <br>
      * <br>
      * Wait {@link #READ_DELAY_MS} between each read, even if there is only one read planned.
      *
+     * @param source The source to read the samples from.
      * @param min_value The lower threshold (inclusive) of accepted range.
      * @param max_value The upper threshold (inclusive) of accepted range.
+     * @param statistics The statistics to reset and fill with the values read, should hold at least read_times values.
      * @return The mean of all the value read (up to {@link #READ_N_TIMES}) or -1 if no read succeeded.
      */
-    public static int read(int read_times, int min_value, int max_value) {
-        int result;
-        int summed_result = 0;
-        int nb_result_read = 0;
-        int final_result = -1;
+    public static int read(SensorSource source, int read_times, int min_value, int max_value, SampleStatistics statistics) {
+        statistics.reset();
 
         for (int i = 0; i < read_times; i++) {
-            result = readProximitySensorValue();
+            final int result = source.readSample();
 
-            if (min_value <= result && result <= max_value) {
-                summed_result += result;
-                nb_result_read++;
-            } else {
-                Log.d(TAG, "Ignored value out of accepted range (" + result + " not in [" + min_value + "," + max_value + "])");
-            }
+            statistics.offer(result, SystemClock.elapsedRealtimeNanos(), min_value, max_value);
 
             // wait a bit between two sensor reading
             try {
@@ -92,18 +131,213 @@ public class ProximitySensorHelper {
             }
         }
 
-        if (nb_result_read == 0) {
+        if (statistics.isEmpty()) {
             // something went wrong with READ_COMMAND, are we allowed to execute it?
             Log.e(TAG, "Could not read sensor value " + read_times + " " + ((read_times == 1) ? "time" : "times"));
+        } else if (statistics.getRejectedCount() > 0) {
+            Log.w(TAG, "Read " + statistics.getAcceptedCount() + "/" + read_times + " values in [" + min_value + "," + max_value + "]");
+        }
+
+        return statistics.getRoundedMean();
+    }
+
+    /**
+     * Call to read(source, read_times, min_value, max_value, statistics) with new statistics.
+     *
+     * @param source The source to read the samples from.
+     * @param min_value The lower threshold (inclusive) of accepted range.
+     * @param max_value The upper threshold (inclusive) of accepted range.
+     * @return The mean of all the value read (up to {@link #READ_N_TIMES}) or -1 if no read succeeded.
+     * @see ProximitySensorHelper#read(SensorSource, int, int, int, SampleStatistics)
+     */
+    public static int read(SensorSource source, int read_times, int min_value, int max_value) {
+        return read(source, read_times, min_value, max_value, new SampleStatistics(Math.max(1, read_times)));
+    }
+
+    /**
+     * Read the proximity sensor value from a source until the accepted values converge and return their mean
+     * value. <br>
+     * <br>
+     * The reading stops as soon as {@link #ADAPTIVE_READ_MIN_N_TIMES} values were accepted and their spread is within
+     * the tolerance, when {@link #ADAPTIVE_READ_MAX_N_TIMES} readings were performed, or when waiting for another
+     * reading would exceed the time budget. Wait {@link #ADAPTIVE_READ_DELAY_MS} between two readings, but not after
+     * the last one.
+     *
+     * @param source The source to read the samples from.
+     * @param min_value The lower threshold (inclusive) of accepted range.
+     * @param max_value The upper threshold (inclusive) of accepted range.
+     * @param tolerance The maximal spread (max - min) of the accepted values to consider them converged.
+     * @param max_duration_ms The time budget of the reading (in milliseconds).
+     * @param statistics The statistics to reset and fill with the values read, should hold at least
+     * {@link #ADAPTIVE_READ_MAX_N_TIMES} values.
+     * @return The mean of all the value read or -1 if no read succeeded.
+     */
+    public static int readAdaptive(SensorSource source, int min_value, int max_value, int tolerance, long max_duration_ms, SampleStatistics statistics) {
+        final long start = SystemClock.elapsedRealtime();
+        int nb_read = 0;
+
+        statistics.reset();
+
+        while (nb_read < ADAPTIVE_READ_MAX_N_TIMES) {
+            final long read_start = SystemClock.elapsedRealtime();
+            final int result = source.readSample();
+            nb_read++;
+
+            statistics.offer(result, SystemClock.elapsedRealtimeNanos(), min_value, max_value);
+
+            if (statistics.getSize() >= ADAPTIVE_READ_MIN_N_TIMES && statistics.getSpread() <= tolerance) {
+                break;
+            }
+
+            // stop if the next reading (assumed to last as long as this one) would not fit in the budget
+            final long now = SystemClock.elapsedRealtime();
+            if (now - start + ADAPTIVE_READ_DELAY_MS + (now - read_start) > max_duration_ms) {
+                break;
+            }
+
+            try {
+                Thread.sleep(ADAPTIVE_READ_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if (statistics.isEmpty()) {
+            Log.e(TAG, "Could not read sensor value " + nb_read + " " + ((nb_read == 1) ? "time" : "times"));
         } else {
-            if (nb_result_read < read_times) {
-                Log.w(TAG, "Read " + nb_result_read + "/" + read_times + " values");
+            Log.d(TAG, "Read " + statistics + " in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+
+        return statistics.getRoundedMean();
+    }
+
+    /**
+     * Call to readAdaptive(source, min_value, max_value, {@link #ADAPTIVE_READ_TOLERANCE},
+     * {@link #ADAPTIVE_READ_MAX_DURATION_MS}, statistics)
+     *
+     * @param source The source to read the samples from.
+     * @param min_value The lower threshold (inclusive) of accepted range.
+     * @param max_value The upper threshold (inclusive) of accepted range.
+     * @param statistics The statistics to reset and fill with the values read.
+     * @return The mean of all the value read or -1 if no read succeeded.
+     * @see ProximitySensorHelper#readAdaptive(SensorSource, int, int, int, long, SampleStatistics)
+     */
+    public static int readAdaptive(SensorSource source, int min_value, int max_value, SampleStatistics statistics) {
+        return readAdaptive(source, min_value, max_value, ADAPTIVE_READ_TOLERANCE, ADAPTIVE_READ_MAX_DURATION_MS, statistics);
+    }
+
+    /**
+     * Listener receiving the samples of a batch as they are read.
+     */
+    public interface BatchListener {
+        /**
+         * Called on the reading thread for each sample, as soon as it is read.
+         *
+         * @param value The value read (in sensor units) or <code>-1</code> if the reading failed.
+         * @param timestamp_ns The time the sample was taken at (in nanoseconds).
+         */
+        void onSample(int value, long timestamp_ns);
+    }
+
+    /**
+     * Call to readBatch(source, values, timestamps_ns, count, delay_ms, null)
+     *
+     * @param source The source to read the samples from.
+     * @param values The array to fill with the samples (in sensor units), <code>-1</code> for a failed reading.
+     * @param timestamps_ns The array to fill with the time each sample was taken at (in nanoseconds).
+     * @param count The amount of samples to read.
+     * @param delay_ms The time between two samples (in milliseconds).
+     * @return The amount of samples read, lower than <code>count</code> only if the thread was interrupted.
+     * @throws IllegalArgumentException if an array is shorter than <code>count</code>.
+     * @see ProximitySensorHelper#readBatch(SensorSource, int[], long[], int, long, BatchListener)
+     */
+    public static int readBatch(SensorSource source, int[] values, long[] timestamps_ns, int count, long delay_ms) throws IllegalArgumentException {
+        return readBatch(source, values, timestamps_ns, count, delay_ms, null);
+    }
+
+    /**
+     * Read a batch of raw samples from a source into caller-provided arrays, one sample every delay_ms. <br>
+     * <br>
+     * Each sample is timestamped with {@link SystemClock#elapsedRealtimeNanos()} when the source returns it. The
+     * reading of a sample is started ahead of its due time by as long as the source took to return the previous one,
+     * so that the startup cost of the source (e.g. spawning {@link #READ_COMMAND}) overlaps the delay between two
+     * samples instead of adding to it. Nothing is allocated besides what the source itself allocates. <br>
+     * <br>
+     * The batch stops early once the thread is interrupted, after the sample being read.
+     *
+     * @param source The source to read the samples from.
+     * @param values The array to fill with the samples (in sensor units), <code>-1</code> for a failed reading.
+     * @param timestamps_ns The array to fill with the time each sample was taken at (in nanoseconds).
+     * @param count The amount of samples to read.
+     * @param delay_ms The time between two samples (in milliseconds).
+     * @param listener The listener receiving each sample as soon as it is read or <code>null</code> if not needed.
+     * @return The amount of samples read, lower than <code>count</code> only if the thread was interrupted.
+     * @throws IllegalArgumentException if an array is shorter than <code>count</code>.
+     */
+    public static int readBatch(SensorSource source, int[] values, long[] timestamps_ns, int count, long delay_ms,
+                                BatchListener listener) throws IllegalArgumentException {
+        if (values.length < count || timestamps_ns.length < count) {
+            throw new IllegalArgumentException("Arrays too short for " + count + " samples");
+        }
+
+        final long delay_ns = TimeUnit.MILLISECONDS.toNanos(delay_ms);
+        int nb_read = 0;
+
+        while (nb_read < count) {
+            final long read_start = SystemClock.elapsedRealtimeNanos();
+            values[nb_read] = source.readSample();
+            timestamps_ns[nb_read] = SystemClock.elapsedRealtimeNanos();
+            nb_read++;
+
+            if (listener != null) {
+                listener.onSample(values[nb_read - 1], timestamps_ns[nb_read - 1]);
+            }
+
+            if (nb_read == count || Thread.currentThread().isInterrupted()) {
+                break;
             }
 
-            final_result = Math.round(summed_result / nb_result_read);
+            // start the next reading early by as long as this one took, so that it returns when due
+            final long read_duration = timestamps_ns[nb_read - 1] - read_start;
+            final long wait_ns = timestamps_ns[nb_read - 1] + delay_ns - read_duration - SystemClock.elapsedRealtimeNanos();
+
+            if (wait_ns > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait_ns);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
         }
 
-        return final_result;
+        return nb_read;
+    }
+
+    /**
+     * Call to read(<code>senread</code> source, read_times, min_value, max_value)
+     *
+     * @param min_value The lower threshold (inclusive) of accepted range.
+     * @param max_value The upper threshold (inclusive) of accepted range.
+     * @return The mean of all the value read (up to {@link #READ_N_TIMES}) or -1 if no read succeeded.
+     * @see ProximitySensorHelper#read(SensorSource, int, int, int)
+     */
+    public static int read(int read_times, int min_value, int max_value) {
+        return read(DEFAULT_SOURCE, read_times, min_value, max_value);
+    }
+
+    /**
+     * Call to read(source, {@link #READ_N_TIMES}, min_value, max_value)
+     *
+     * @param source The source to read the samples from.
+     * @param min_value The lower threshold (inclusive) of accepted range.
+     * @param max_value The upper threshold (inclusive) of accepted range.
+     * @return The mean of all the value read (up to {@link #READ_N_TIMES}) or -1 if no read succeeded.
+     * @see ProximitySensorHelper#read(SensorSource, int, int, int)
+     */
+    public static int read(SensorSource source, int min_value, int max_value) {
+        return read(source, READ_N_TIMES, min_value, max_value);
     }
 
     /**
@@ -129,27 +363,104 @@ public class ProximitySensorHelper {
     }
 
     /**
-     * Read the proximity sensor value using an external command ({@link #READ_COMMAND}).
+     * Enable or disable the long-lived reader. <br>
+     * <br>
+     * When enabled (the default), samples are read through a single shell kept open between samples instead of
+     * executing {@link #READ_COMMAND} from the app for every sample. Disabling it also releases the shell.
+     *
+     * @param enabled <code>true</code> to read through the long-lived reader when available.
+     */
+    public static void setStreamingEnabled(boolean enabled) {
+        sStreamingEnabled = enabled;
+
+        if (!enabled) {
+            releaseStreamingReader();
+        }
+    }
+
+    /**
+     * Release the long-lived reader, if any. <br>
+     * <br>
+     * A new one is started on the next reading if streaming is still enabled.
+     */
+    public static void releaseStreamingReader() {
+        final SensorReaderCoprocess coprocess;
+
+        synchronized (ProximitySensorHelper.class) {
+            coprocess = sReaderCoprocess;
+            sReaderCoprocess = null;
+        }
+
+        if (coprocess != null) {
+            coprocess.release();
+        }
+    }
+
+    /**
+     * Read the proximity sensor value, through the long-lived reader if possible or using an external command
+     * ({@link #READ_COMMAND}) otherwise.
      *
      * @return the proximity sensor value (>= {@link #READ_MIN_LIMIT and <= {@link #READ_MAX_LIMIT}}) or
      * <code>-1</code> if there was an error (parsing the value or using the external command).
      */
-    private static int readProximitySensorValue() {
+    public static int readRawValue() {
+        final SensorReaderCoprocess coprocess = getStreamingReader();
+
+        if (coprocess != null) {
+            try {
+                return coprocess.readValue();
+            } catch (IOException e) {
+                Log.w(TAG, "Long-lived reader failed, falling back to `" + READ_COMMAND + "`", e);
+            }
+        }
+
+        return execProximitySensorValue();
+    }
+
+    /**
+     * @return The long-lived reader, started lazily, or <code>null</code> if streaming is disabled or not available.
+     */
+    private static synchronized SensorReaderCoprocess getStreamingReader() {
+        if (!sStreamingEnabled) {
+            return null;
+        }
+
+        if (sReaderCoprocess == null) {
+            sReaderCoprocess = new SensorReaderCoprocess(READ_COMMAND);
+        }
+
+        return sReaderCoprocess.isAvailable() ? sReaderCoprocess : null;
+    }
+
+    /**
+     * Read the proximity sensor value by executing the external command ({@link #READ_COMMAND}) once.
+     *
+     * @return the proximity sensor value or <code>-1</code> if there was an error.
+     */
+    private static int execProximitySensorValue() {
         int value = -1;
         Process process = null;
 
         try {
             process = Runtime.getRuntime().exec(new String[]{READ_COMMAND});
-            final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            final String line = reader.readLine();
 
-            if (line != null && line.startsWith(READ_COMMAND_RESULT_PREFIX)) {
-                value = Integer.parseInt(line.replace(READ_COMMAND_RESULT_PREFIX, "").trim());
+            final int count;
+            synchronized (sExecParser) {
+                sExecParser.reset(process.getInputStream());
+                try {
+                    count = sExecParser.readResults(sExecValues);
+                    if (count > 0) {
+                        value = sExecValues[0];
+                    }
+                } finally {
+                    sExecParser.reset(null);
+                }
+            }
+            if (count != 1 || value == SenreadOutputParser.INVALID_VALUE) {
+                Log.w(TAG, "`" + READ_COMMAND + "` printed " + count + " result(s), first value " + value);
             }
         } catch (IOException e) {
             Log.wtf(TAG, "Could not execute command `" + READ_COMMAND + "`", e);
-        } catch (NumberFormatException e) {
-            Log.wtf(TAG, e);
         } finally {
             if (process != null) {
                 process.destroy();
@@ -0,0 +1,189 @@
+package com.fairphone.psensor.helpers;
+
+import android.os.SystemClock;
+
+import com.fairphone.psensor.sensor.SenreadOutputParser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Long-lived shell used to run the sensor reading command without spawning a new process from the app for each
+ * sample. <br>
+ * <br>
+ * {@link Runtime#exec(String[])} forks the (large) app process, which dominates the cost of a single reading. Instead,
+ * one shell is started once and asked to run the reading command for every sample. Each answer is terminated by a
+ * marker line so that the output of two samples can never be mixed up. The answers are parsed by a
+ * {@link SenreadOutputParser} reused for the lifetime of the coprocess. <br>
+ * <br>
+ * The shell is restarted if it dies. After {@link #MAX_CONSECUTIVE_FAILURES} failures in a row, the coprocess reports
+ * itself as unavailable and the caller is expected to fall back to a one-shot execution of the reading command. It is
+ * available again for one attempt after a back-off delay, starting at {@link #MIN_RETRY_DELAY_MS} and doubled (up to
+ * {@link #MAX_RETRY_DELAY_MS}) each time the attempt fails.
+ */
+final class SensorReaderCoprocess {
+
+    /**
+     * Shell used to host the reading command.
+     */
+    private static final String SHELL = "/system/bin/sh";
+    /**
+     * Line printed by the shell once the reading command completed.
+     */
+    private static final String END_OF_SAMPLE_MARKER = "__PSENSOR_END_OF_SAMPLE__";
+    /**
+     * Amount of consecutive failures (start or read) before giving up on the coprocess.
+     */
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    /**
+     * Initial delay before trying the coprocess again once it gave up (in milliseconds).
+     */
+    private static final long MIN_RETRY_DELAY_MS = 30 * 1000L;
+    /**
+     * Maximal delay before trying the coprocess again once it gave up (in milliseconds).
+     */
+    private static final long MAX_RETRY_DELAY_MS = 30 * 60 * 1000L;
+
+    private static final byte[] END_OF_SAMPLE_MARKER_BYTES = END_OF_SAMPLE_MARKER.getBytes(Charset.forName("US-ASCII"));
+
+    private final String mReadCommand;
+    private final byte[] mRequest;
+    private final SenreadOutputParser mParser = new SenreadOutputParser();
+    private final int[] mValues = new int[1];
+
+    private final Object mLock = new Object();
+
+    private volatile Process mProcess;
+    private volatile boolean mReleased;
+
+    private OutputStream mWriter;
+    private volatile int mConsecutiveFailures;
+    /**
+     * Time the coprocess last gave up (in {@link SystemClock#elapsedRealtime()} milliseconds).
+     */
+    private volatile long mGaveUpAtMs;
+    private volatile long mRetryDelayMs = MIN_RETRY_DELAY_MS;
+
+    /**
+     * @param readCommand The command printing one sensor sample.
+     */
+    SensorReaderCoprocess(String readCommand) {
+        mReadCommand = readCommand;
+        mRequest = (readCommand + " 2>/dev/null; echo " + END_OF_SAMPLE_MARKER + "\n").getBytes(Charset.forName("US-ASCII"));
+    }
+
+    /**
+     * @return <code>false</code> if the coprocess has been released, or if it failed too many times in a row and the
+     * back-off delay is not over yet.
+     */
+    boolean isAvailable() {
+        if (mReleased) {
+            return false;
+        }
+
+        return mConsecutiveFailures < MAX_CONSECUTIVE_FAILURES
+                || SystemClock.elapsedRealtime() - mGaveUpAtMs >= mRetryDelayMs;
+    }
+
+    /**
+     * Ask the shell to run the reading command once and parse its output.
+     *
+     * @return The first value printed by the reading command or <code>-1</code> if it did not print any.
+     * @throws IOException if the shell could not be (re)started or died while reading.
+     */
+    int readValue() throws IOException {
+        synchronized (mLock) {
+            IOException failure = null;
+
+            /* If the shell died since the last sample, restart it once before reporting a failure. */
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    final int value = doReadValue();
+                    mConsecutiveFailures = 0;
+                    mRetryDelayMs = MIN_RETRY_DELAY_MS;
+
+                    return value;
+                } catch (IOException e) {
+                    failure = e;
+                    stop();
+
+                    if (mReleased) {
+                        break;
+                    }
+                }
+            }
+
+            mConsecutiveFailures++;
+            if (mConsecutiveFailures >= MAX_CONSECUTIVE_FAILURES) {
+                if (mConsecutiveFailures > MAX_CONSECUTIVE_FAILURES) {
+                    /* The attempt after the back-off failed as well, wait longer before the next one. */
+                    mRetryDelayMs = Math.min(mRetryDelayMs * 2, MAX_RETRY_DELAY_MS);
+                }
+                mGaveUpAtMs = SystemClock.elapsedRealtime();
+            }
+            throw failure;
+        }
+    }
+
+    /**
+     * Stop the shell. <br>
+     * <br>
+     * Safe to call from any thread, even while a sample is being read; the pending read then fails.
+     */
+    void release() {
+        mReleased = true;
+
+        final Process process = mProcess;
+        if (process != null) {
+            process.destroy();
+        }
+    }
+
+    private int doReadValue() throws IOException {
+        if (mReleased) {
+            throw new IOException("Coprocess `" + mReadCommand + "` has been released");
+        }
+
+        if (mProcess == null) {
+            start();
+        }
+
+        mWriter.write(mRequest);
+        mWriter.flush();
+
+        try {
+            final int count = mParser.readResults(mValues, END_OF_SAMPLE_MARKER_BYTES);
+
+            return (count > 0) ? mValues[0] : -1;
+        } catch (EOFException e) {
+            throw new IOException("Coprocess `" + SHELL + "` died while running `" + mReadCommand + "`", e);
+        }
+    }
+
+    private void start() throws IOException {
+        final Process process = new ProcessBuilder(SHELL).start();
+
+        mParser.reset(process.getInputStream());
+        mWriter = process.getOutputStream();
+        mProcess = process;
+
+        if (mReleased) {
+            /* Released while starting, do not leak the shell. */
+            process.destroy();
+        }
+    }
+
+    private void stop() {
+        final Process process = mProcess;
+
+        mProcess = null;
+        mParser.reset(null);
+        mWriter = null;
+
+        if (process != null) {
+            process.destroy();
+        }
+    }
+}
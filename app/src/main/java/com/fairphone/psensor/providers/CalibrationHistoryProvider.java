@@ -0,0 +1,195 @@
+package com.fairphone.psensor.providers;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.fairphone.psensor.CalibrationContract;
+import com.fairphone.psensor.CalibrationContract.CalibrationData;
+import com.fairphone.psensor.CalibrationDatabase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Read-only access to the calibration history, e.g. from the shell:<br>
+ * <code>adb shell content query --uri content://com.fairphone.psensor.calibrations/calibration?limit=10</code><br>
+ * <br>
+ * The supported query parameters are {@link CalibrationData#QUERY_PARAMETER_LIMIT},
+ * {@link CalibrationData#QUERY_PARAMETER_BEFORE_ID} (newest first, the default), and
+ * {@link CalibrationData#QUERY_PARAMETER_SINCE} with {@link CalibrationData#QUERY_PARAMETER_AFTER_ID} (oldest first).
+ * The rows are streamed through the cursor window rather than loaded at once. <br>
+ * <br>
+ * The caller-supplied SQL is restricted: the projection and the sort order may only name the columns of
+ * {@link CalibrationData} (optionally followed by <code>ASC</code> or <code>DESC</code> for the sort order), and a
+ * selection is rejected in favor of the query parameters.
+ */
+public class CalibrationHistoryProvider extends ContentProvider {
+
+    private static final int MATCH_CALIBRATIONS = 1;
+    private static final int MATCH_CALIBRATION_ID = 2;
+
+    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    /**
+     * The columns a caller may name in the projection or the sort order.
+     */
+    private static final Set<String> COLUMNS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            CalibrationData._ID,
+            CalibrationData.COLUMN_NAME_TIMESTAMP,
+            CalibrationData.COLUMN_NAME_PREVIOUS_NEAR,
+            CalibrationData.COLUMN_NAME_PREVIOUS_FAR,
+            CalibrationData.COLUMN_NAME_PREVIOUS_OFFSET,
+            CalibrationData.COLUMN_NAME_NEAR,
+            CalibrationData.COLUMN_NAME_FAR,
+            CalibrationData.COLUMN_NAME_OFFSET,
+            CalibrationData.COLUMN_NAME_APP_VERSION,
+            CalibrationData.COLUMN_NAME_RAW_SAMPLES)));
+
+    static {
+        sUriMatcher.addURI(CalibrationContract.AUTHORITY, CalibrationData.TABLE_NAME, MATCH_CALIBRATIONS);
+        sUriMatcher.addURI(CalibrationContract.AUTHORITY, CalibrationData.TABLE_NAME + "/#", MATCH_CALIBRATION_ID);
+    }
+
+    @Override
+    public boolean onCreate() {
+        /* The database is opened lazily, on the first query. */
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        final List<String> where = new ArrayList<>();
+        final List<String> whereArgs = new ArrayList<>();
+        String order = CalibrationData._ID + " DESC";
+        String limit = null;
+
+        switch (sUriMatcher.match(uri)) {
+            case MATCH_CALIBRATIONS:
+                final String before = uri.getQueryParameter(CalibrationData.QUERY_PARAMETER_BEFORE_ID);
+                final String since = uri.getQueryParameter(CalibrationData.QUERY_PARAMETER_SINCE);
+                final String after = uri.getQueryParameter(CalibrationData.QUERY_PARAMETER_AFTER_ID);
+
+                if (before != null) {
+                    where.add(CalibrationData._ID + " < ?");
+                    whereArgs.add(String.valueOf(parseLong(before)));
+                }
+                if (since != null) {
+                    where.add(CalibrationData.COLUMN_NAME_TIMESTAMP + " >= ?");
+                    whereArgs.add(CalibrationDatabase.formatTimestamp(parseLong(since)));
+                    order = CalibrationData._ID + " ASC";
+                }
+                if (after != null) {
+                    where.add(CalibrationData._ID + " > ?");
+                    whereArgs.add(String.valueOf(parseLong(after)));
+                    order = CalibrationData._ID + " ASC";
+                }
+
+                final String limitParameter = uri.getQueryParameter(CalibrationData.QUERY_PARAMETER_LIMIT);
+                if (limitParameter != null) {
+                    limit = String.valueOf(parseLong(limitParameter));
+                }
+                break;
+
+            case MATCH_CALIBRATION_ID:
+                where.add(CalibrationData._ID + " = ?");
+                whereArgs.add(String.valueOf(ContentUris.parseId(uri)));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        if (!TextUtils.isEmpty(selection)) {
+            throw new IllegalArgumentException("Selection not supported, use the query parameters instead");
+        }
+        if (projection != null) {
+            for (String column : projection) {
+                checkColumn(column);
+            }
+        }
+        if (!TextUtils.isEmpty(sortOrder)) {
+            order = checkSortOrder(sortOrder);
+        }
+
+        return CalibrationDatabase.getInstance(getContext()).query(projection,
+                where.isEmpty() ? null : TextUtils.join(" AND ", where),
+                whereArgs.toArray(new String[whereArgs.size()]), order, limit);
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case MATCH_CALIBRATIONS:
+                return CalibrationData.CONTENT_TYPE;
+            case MATCH_CALIBRATION_ID:
+                return CalibrationData.CONTENT_ITEM_TYPE;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("The calibration history is read-only");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("The calibration history is read-only");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("The calibration history is read-only");
+    }
+
+    /**
+     * @param column A column named by the caller.
+     * @throws IllegalArgumentException if the column is not a column of {@link CalibrationData}.
+     */
+    private static void checkColumn(String column) throws IllegalArgumentException {
+        if (!COLUMNS.contains(column)) {
+            throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+
+    /**
+     * @param sortOrder A sort order supplied by the caller.
+     * @return The sort order, normalized.
+     * @throws IllegalArgumentException if the sort order is not a column of {@link CalibrationData}, optionally
+     * followed by <code>ASC</code> or <code>DESC</code>.
+     */
+    private static String checkSortOrder(String sortOrder) throws IllegalArgumentException {
+        final String[] terms = sortOrder.trim().split("\\s+");
+
+        checkColumn(terms[0]);
+        if (terms.length == 1) {
+            return terms[0];
+        }
+
+        final String direction = terms[1].toUpperCase(Locale.ENGLISH);
+        if (terms.length > 2 || !("ASC".equals(direction) || "DESC".equals(direction))) {
+            throw new IllegalArgumentException("Unsupported sort order " + sortOrder);
+        }
+
+        return terms[0] + " " + direction;
+    }
+
+    private static long parseLong(String value) throws IllegalArgumentException {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value, e);
+        }
+    }
+}
@@ -3,11 +3,45 @@ package com.fairphone.psensor.receivers;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.fairphone.psensor.Utils;
-import com.fairphone.psensor.helpers.CalibrationStatusHelper;
 
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finalize the calibration state at boot. <br>
+ * <br>
+ * The boot completed broadcast is delivered while the device is at its busiest, so the receiver returns right away
+ * and handles the broadcast on a background thread (see {@link #goAsync()}). The time spent on the main thread and
+ * in the background is logged.
+ */
 public class BootUpReceiver extends BroadcastReceiver {
+    private static final String TAG = BootUpReceiver.class.getSimpleName();
+
+    /**
+     * Time after which the idle background thread is stopped (in seconds).
+     */
+    private static final long KEEP_ALIVE_S = 10;
+
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, BootUpReceiver.class.getSimpleName());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
 
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -15,10 +49,27 @@ public class BootUpReceiver extends BroadcastReceiver {
             return;
         }
 
-        if (CalibrationStatusHelper.isCalibrationPending(context)) {
-            CalibrationStatusHelper.setCalibrationCompleted(context);
-        }
+        final long receivedAt = SystemClock.elapsedRealtime();
+        final Context appContext = context.getApplicationContext();
+        final PendingResult pendingResult = goAsync();
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long startedAt = SystemClock.elapsedRealtime();
+
+                try {
+                    Utils.handleBootComplete(appContext);
+                } finally {
+                    pendingResult.finish();
+
+                    final long finishedAt = SystemClock.elapsedRealtime();
+                    Log.i(TAG, "Boot completed handled in " + (finishedAt - receivedAt) + "ms (queued "
+                            + (startedAt - receivedAt) + "ms, ran " + (finishedAt - startedAt) + "ms)");
+                }
+            }
+        });
 
-        Utils.handleBootComplete(context);
+        Log.d(TAG, "Boot completed dispatched in " + (SystemClock.elapsedRealtime() - receivedAt) + "ms");
     }
 }
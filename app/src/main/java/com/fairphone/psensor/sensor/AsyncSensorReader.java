@@ -0,0 +1,201 @@
+package com.fairphone.psensor.sensor;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.fairphone.psensor.helpers.ProximitySensorHelper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous, cancellable sensor readings. <br>
+ * <br>
+ * All the readings of the app run one at a time on a single shared background thread, so that at most one sampler
+ * (and one reading process) is alive at any time. The result is delivered through a {@link Handler}, unless the
+ * reading was cancelled in the meantime.
+ */
+public class AsyncSensorReader {
+    private static final String TAG = AsyncSensorReader.class.getSimpleName();
+
+    /**
+     * Maximal amount of readings waiting for the sampling thread.
+     */
+    private static final int MAX_PENDING_READS = 4;
+    /**
+     * Time after which the idle sampling thread is stopped (in seconds).
+     */
+    private static final long KEEP_ALIVE_S = 30;
+
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_PENDING_READS), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, AsyncSensorReader.class.getSimpleName());
+            }
+        });
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Callback receiving the result of a reading.
+     */
+    public interface Callback {
+        /**
+         * Called on the handler thread once the reading completed, never if it was cancelled.
+         *
+         * @param value The value read or <code>-1</code> if the reading failed.
+         */
+        void onRead(int value);
+    }
+
+    /**
+     * Handle on a pending reading.
+     */
+    public static final class Request {
+        private final boolean mMayInterrupt;
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+
+        private Request(boolean mayInterrupt) {
+            mMayInterrupt = mayInterrupt;
+        }
+
+        /**
+         * Cancel the reading: interrupt it if it is running (unless submitted with
+         * {@link #submitUninterruptible(Callable, Handler, Callback)}), remove it from the queue if it is pending, and
+         * never deliver its result. <br>
+         * <br>
+         * Cancelling from the handler thread guarantees that the callback is not called afterwards.
+         */
+        public synchronized void cancel() {
+            mCancelled = true;
+
+            if (mFuture != null) {
+                cancel(mFuture, mMayInterrupt);
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the reading was cancelled.
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        private synchronized void setFuture(Future<?> future) {
+            mFuture = future;
+
+            if (mCancelled) {
+                cancel(future, mMayInterrupt);
+            }
+        }
+
+        private static void cancel(Future<?> future, boolean mayInterrupt) {
+            future.cancel(mayInterrupt);
+
+            /* A cancelled reading would otherwise hold its slot in the queue until the sampling thread reaches it. */
+            sExecutor.purge();
+        }
+    }
+
+    /**
+     * Empty constructor to avoid instantiation.
+     */
+    private AsyncSensorReader() {
+    }
+
+    /**
+     * Run a reading on the sampling thread.
+     *
+     * @param read The reading to run.
+     * @param handler The handler to deliver the result through.
+     * @param callback The callback receiving the result.
+     * @return The handle to cancel the reading.
+     * @throws RejectedExecutionException if too many readings are already pending.
+     */
+    public static Request submit(Callable<Integer> read, Handler handler, Callback callback) throws RejectedExecutionException {
+        return submit(read, handler, callback, true);
+    }
+
+    /**
+     * Run a task on the sampling thread that must not be interrupted once started, e.g. a write to the persistent
+     * memory. <br>
+     * <br>
+     * Cancelling the task only removes it from the queue if it is pending, a running task completes but its result is
+     * not delivered.
+     *
+     * @param task The task to run.
+     * @param handler The handler to deliver the result through.
+     * @param callback The callback receiving the result.
+     * @return The handle to cancel the task.
+     * @throws RejectedExecutionException if too many readings are already pending.
+     */
+    public static Request submitUninterruptible(Callable<Integer> task, Handler handler, Callback callback) throws RejectedExecutionException {
+        return submit(task, handler, callback, false);
+    }
+
+    private static Request submit(final Callable<Integer> read, final Handler handler, final Callback callback,
+                                  boolean mayInterrupt) throws RejectedExecutionException {
+        final Request request = new Request(mayInterrupt);
+
+        request.setFuture(sExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (request.isCancelled()) {
+                    return;
+                }
+
+                int value = -1;
+                try {
+                    value = read.call();
+                } catch (Exception e) {
+                    Log.wtf(TAG, e);
+                }
+
+                final int result = value;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!request.isCancelled()) {
+                            callback.onRead(result);
+                        }
+                    }
+                });
+            }
+        }));
+
+        return request;
+    }
+
+    /**
+     * Run an adaptive reading on the sampling thread.
+     *
+     * @param source The source to read the samples from.
+     * @param minValue The lower threshold (inclusive) of accepted range.
+     * @param maxValue The upper threshold (inclusive) of accepted range.
+     * @param statistics The statistics to fill, must not be accessed until the result is delivered.
+     * @param handler The handler to deliver the result through.
+     * @param callback The callback receiving the result.
+     * @return The handle to cancel the reading.
+     * @throws RejectedExecutionException if too many readings are already pending.
+     * @see ProximitySensorHelper#readAdaptive(SensorSource, int, int, SampleStatistics)
+     */
+    public static Request readAdaptive(final SensorSource source, final int minValue, final int maxValue,
+                                       final SampleStatistics statistics, Handler handler, Callback callback) throws RejectedExecutionException {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return ProximitySensorHelper.readAdaptive(source, minValue, maxValue, statistics);
+            }
+        }, handler, callback);
+    }
+}
@@ -0,0 +1,163 @@
+package com.fairphone.psensor.sensor;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.fairphone.psensor.helpers.ProximitySensorHelper;
+
+/**
+ * Read samples from a source at a fixed rate on a dedicated background thread. <br>
+ * <br>
+ * The samples are read in batches (see
+ * {@link ProximitySensorHelper#readBatch(SensorSource, int[], long[], int, long)}) spanning up to
+ * {@link #MAX_BATCH_DURATION_MS}, so that the startup cost of a source overlaps the period instead of adding to it.
+ * Each sample is delivered as soon as it is read, with the time it was taken at. <br>
+ * <br>
+ * The samples are delivered on the sampling thread; listeners updating the UI are expected to hand the values over
+ * to the main thread themselves. The sampler can be started and stopped repeatedly, e.g. from
+ * <code>onResume()</code> and <code>onPause()</code>.
+ */
+public class ContinuousSensorSampler {
+
+    /**
+     * Maximal time spanned by a batch of samples (in milliseconds).
+     */
+    public static final long MAX_BATCH_DURATION_MS = 1000;
+    /**
+     * Maximal amount of samples in a batch.
+     */
+    public static final int MAX_BATCH_SIZE = 20;
+
+    /**
+     * Listener receiving the samples.
+     */
+    public interface Listener {
+        /**
+         * Called on the sampling thread for each sample.
+         *
+         * @param value The value read or <code>-1</code> if the reading failed.
+         * @param timestampNanos The time the sample was taken at (see {@link SystemClock#elapsedRealtimeNanos()}).
+         */
+        void onSample(int value, long timestampNanos);
+    }
+
+    private final SensorSource mSource;
+    private final Listener mListener;
+
+    private volatile long mPeriodMs;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    /**
+     * @param source The source to read the samples from.
+     * @param periodMs The time between the start of two samples (in milliseconds).
+     * @param listener The listener receiving the samples.
+     */
+    public ContinuousSensorSampler(SensorSource source, long periodMs, Listener listener) {
+        mSource = source;
+        mPeriodMs = periodMs;
+        mListener = listener;
+    }
+
+    /**
+     * Change the time between the start of two samples, effective from the next batch. <br>
+     * <br>
+     * If a sample takes longer than the period, the next one starts right away.
+     *
+     * @param periodMs The time between the start of two samples (in milliseconds).
+     */
+    public void setPeriodMs(long periodMs) {
+        mPeriodMs = periodMs;
+    }
+
+    /**
+     * Start sampling, no-op if already started.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+
+        mThread = new HandlerThread(ContinuousSensorSampler.class.getSimpleName());
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(new SampleTask(mHandler));
+    }
+
+    /**
+     * Stop sampling, no-op if already stopped. <br>
+     * <br>
+     * The batch being read is interrupted after its current sample, which is not delivered, and no further sample is
+     * taken.
+     */
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+
+        mHandler.removeCallbacksAndMessages(null);
+        mThread.interrupt();
+        mThread.quitSafely();
+        mThread = null;
+        mHandler = null;
+    }
+
+    /**
+     * @return <code>true</code> if sampling is started.
+     */
+    public synchronized boolean isStarted() {
+        return mThread != null;
+    }
+
+    /**
+     * @param periodMs The time between the start of two samples (in milliseconds).
+     * @return The amount of samples to read in a batch.
+     */
+    static int getBatchSize(long periodMs) {
+        if (periodMs <= 0) {
+            return MAX_BATCH_SIZE;
+        }
+        return (int) Math.max(1, Math.min(MAX_BATCH_SIZE, MAX_BATCH_DURATION_MS / periodMs));
+    }
+
+    private class SampleTask implements Runnable, ProximitySensorHelper.BatchListener {
+        private final Handler mTaskHandler;
+        /* Owned by this task, so that a batch still completing after a restart does not share them. */
+        private final int[] mValues = new int[MAX_BATCH_SIZE];
+        private final long[] mTimestampsNanos = new long[MAX_BATCH_SIZE];
+
+        SampleTask(Handler handler) {
+            mTaskHandler = handler;
+        }
+
+        @Override
+        public void run() {
+            final long start = SystemClock.uptimeMillis();
+            final long periodMs = mPeriodMs;
+            final int batchSize = getBatchSize(periodMs);
+            ProximitySensorHelper.readBatch(mSource, mValues, mTimestampsNanos, batchSize, periodMs, this);
+
+            synchronized (ContinuousSensorSampler.this) {
+                if (mTaskHandler == mHandler) {
+                    mTaskHandler.postAtTime(this, start + batchSize * periodMs);
+                }
+            }
+        }
+
+        @Override
+        public void onSample(int value, long timestampNanos) {
+            /* Drop the sample if the sampler was stopped (or restarted) while reading. */
+            if (isCurrent()) {
+                mListener.onSample(value, timestampNanos);
+            }
+        }
+
+        private boolean isCurrent() {
+            synchronized (ContinuousSensorSampler.this) {
+                return mTaskHandler == mHandler;
+            }
+        }
+    }
+}
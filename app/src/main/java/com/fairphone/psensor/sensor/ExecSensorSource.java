@@ -0,0 +1,27 @@
+package com.fairphone.psensor.sensor;
+
+import com.fairphone.psensor.helpers.ProximitySensorHelper;
+
+/**
+ * Source reading samples through the <code>senread</code> tool, either with a long-lived reader or one execution per
+ * sample.
+ *
+ * @see ProximitySensorHelper#readRawValue()
+ */
+public class ExecSensorSource implements SensorSource {
+
+    @Override
+    public boolean isAvailable() {
+        return ProximitySensorHelper.canReadProximitySensorValue();
+    }
+
+    @Override
+    public int readSample() {
+        return ProximitySensorHelper.readRawValue();
+    }
+
+    @Override
+    public void release() {
+        ProximitySensorHelper.releaseStreamingReader();
+    }
+}
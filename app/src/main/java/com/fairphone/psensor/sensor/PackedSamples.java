@@ -0,0 +1,192 @@
+package com.fairphone.psensor.sensor;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compact binary encoding of sample series, e.g. to store the raw samples of a calibration. <br>
+ * <br>
+ * The layout is:
+ * <ol>
+ * <li>The format version (1 byte, {@link #FORMAT_VERSION}).</li>
+ * <li>The amount of series (varint).</li>
+ * <li>For each series: the amount of accepted samples <code>n</code> (varint), the amount of rejected samples
+ * (varint), the <code>n</code> values (1 unsigned byte each), and the <code>n - 1</code> delays between two
+ * consecutive samples (varint, in microseconds).</li>
+ * </ol>
+ * Varints are unsigned LEB128: 7 bits per byte, least significant group first, high bit set on all but the last byte.
+ * The two series of 8 samples taken 100ms apart stored for a calibration are packed in 64 bytes.
+ */
+public final class PackedSamples {
+
+    /**
+     * Version of the encoding, increased on incompatible changes.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * Maximal value that can be packed.
+     */
+    public static final int MAX_VALUE = 0xFF;
+
+    private final int[][] mValues;
+    private final long[][] mDelaysMicros;
+    private final int[] mRejectedCounts;
+
+    private PackedSamples(int[][] values, long[][] delaysMicros, int[] rejectedCounts) {
+        mValues = values;
+        mDelaysMicros = delaysMicros;
+        mRejectedCounts = rejectedCounts;
+    }
+
+    /**
+     * Pack the samples of series, oldest first.
+     *
+     * @param series The series to pack.
+     * @return The packed samples.
+     * @throws IllegalArgumentException if a value does not belong to [0;{@link #MAX_VALUE}] or if the timestamps of a
+     * series are not increasing.
+     */
+    public static byte[] pack(SampleStatistics... series) throws IllegalArgumentException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        output.write(FORMAT_VERSION);
+        writeVarint(output, series.length);
+
+        for (SampleStatistics statistics : series) {
+            final int size = statistics.getSize();
+
+            writeVarint(output, size);
+            writeVarint(output, statistics.getRejectedCount());
+
+            for (int i = 0; i < size; i++) {
+                final int value = statistics.getValue(i);
+
+                if (value < 0 || MAX_VALUE < value) {
+                    throw new IllegalArgumentException("Value (" + value + ") not in the packable range [0;" + MAX_VALUE + "]");
+                }
+                output.write(value);
+            }
+
+            for (int i = 1; i < size; i++) {
+                final long delayNanos = statistics.getTimestamp(i) - statistics.getTimestamp(i - 1);
+
+                if (delayNanos < 0) {
+                    throw new IllegalArgumentException("Timestamps of sample " + (i - 1) + " and " + i + " are not increasing");
+                }
+                writeVarint(output, delayNanos / 1000);
+            }
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Unpack samples packed with {@link #pack(SampleStatistics...)}.
+     *
+     * @param packed The packed samples.
+     * @return The samples.
+     * @throws IllegalArgumentException if the samples are truncated or of an unknown format.
+     */
+    public static PackedSamples unpack(byte[] packed) throws IllegalArgumentException {
+        final Reader reader = new Reader(packed);
+
+        final int version = reader.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown packed samples format " + version);
+        }
+
+        final int seriesCount = (int) reader.readVarint();
+        final int[][] values = new int[seriesCount][];
+        final long[][] delaysMicros = new long[seriesCount][];
+        final int[] rejectedCounts = new int[seriesCount];
+
+        for (int s = 0; s < seriesCount; s++) {
+            final int size = (int) reader.readVarint();
+
+            rejectedCounts[s] = (int) reader.readVarint();
+
+            values[s] = new int[size];
+            for (int i = 0; i < size; i++) {
+                values[s][i] = reader.readByte();
+            }
+
+            delaysMicros[s] = new long[Math.max(size - 1, 0)];
+            for (int i = 0; i < delaysMicros[s].length; i++) {
+                delaysMicros[s][i] = reader.readVarint();
+            }
+        }
+
+        return new PackedSamples(values, delaysMicros, rejectedCounts);
+    }
+
+    /**
+     * @return The amount of series.
+     */
+    public int getSeriesCount() {
+        return mValues.length;
+    }
+
+    /**
+     * @param series The index of the series.
+     * @return The accepted values of the series, oldest first.
+     */
+    public int[] getValues(int series) {
+        return mValues[series].clone();
+    }
+
+    /**
+     * @param series The index of the series.
+     * @return The delays between two consecutive samples of the series (in microseconds).
+     */
+    public long[] getDelaysMicros(int series) {
+        return mDelaysMicros[series].clone();
+    }
+
+    /**
+     * @param series The index of the series.
+     * @return The amount of rejected samples of the series.
+     */
+    public int getRejectedCount(int series) {
+        return mRejectedCounts[series];
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, long value) {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    private static final class Reader {
+        private final byte[] mBytes;
+        private int mPosition;
+
+        Reader(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        int readByte() throws IllegalArgumentException {
+            if (mPosition >= mBytes.length) {
+                throw new IllegalArgumentException("Packed samples truncated at byte " + mPosition);
+            }
+
+            return mBytes[mPosition++] & 0xFF;
+        }
+
+        long readVarint() throws IllegalArgumentException {
+            long value = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IllegalArgumentException("Varint too long at byte " + mPosition);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.fairphone.psensor.sensor;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.Locale;
+
+/**
+ * Ingest the framework proximity sensor events off the main thread. <br>
+ * <br>
+ * The listener is registered on a dedicated thread and, when the sensor has a hardware FIFO, with a maximal report
+ * latency so that events are delivered in batches instead of waking the app up for each of them. The last events are
+ * recorded in a preallocated ring buffer along with the event count and inter-event interval statistics; recording
+ * does not allocate memory.
+ */
+public class ProximityEventIngestor {
+
+    /**
+     * Listener receiving the events.
+     */
+    public interface Listener {
+        /**
+         * Called on the ingestion thread for each event, after it has been recorded.
+         *
+         * @param value The distance reported by the sensor.
+         * @param timestampNanos The event timestamp (see {@link SensorEvent#timestamp}).
+         */
+        void onProximityEvent(float value, long timestampNanos);
+    }
+
+    private final SensorManager mSensorManager;
+    private final Sensor mSensor;
+    private final int mSamplingPeriodUs;
+    private final int mMaxReportLatencyUs;
+
+    private final float[] mValues;
+    private final long[] mTimestamps;
+    private int mNext;
+    private int mSize;
+
+    private long mEventCount;
+    private long mLastTimestamp;
+    private long mMinIntervalNanos = Long.MAX_VALUE;
+    private long mMaxIntervalNanos;
+    private long mSumIntervalNanos;
+
+    private HandlerThread mThread;
+    private Listener mListener;
+
+    private final SensorEventListener mSensorEventListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            record(event.values[0], event.timestamp);
+
+            final Listener listener = mListener;
+            if (listener != null) {
+                listener.onProximityEvent(event.values[0], event.timestamp);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+            // fall-through
+        }
+    };
+
+    /**
+     * @param sensorManager The sensor manager.
+     * @param capacity The amount of last events to keep.
+     * @param samplingPeriodUs The requested sampling period (in microseconds).
+     * @param maxReportLatencyUs The maximal delay to report a batched event (in microseconds), used only if the sensor
+     * supports batching.
+     */
+    public ProximityEventIngestor(SensorManager sensorManager, int capacity, int samplingPeriodUs, int maxReportLatencyUs) {
+        mSensorManager = sensorManager;
+        mSensor = sensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY);
+        mSamplingPeriodUs = samplingPeriodUs;
+        mMaxReportLatencyUs = maxReportLatencyUs;
+        mValues = new float[capacity];
+        mTimestamps = new long[capacity];
+    }
+
+    /**
+     * @return <code>true</code> if the device has a proximity sensor.
+     */
+    public boolean isAvailable() {
+        return mSensor != null;
+    }
+
+    /**
+     * @return <code>true</code> if the sensor has a hardware FIFO, i.e. events are batched.
+     */
+    public boolean isBatching() {
+        return mSensor != null && mSensor.getFifoMaxEventCount() > 0;
+    }
+
+    /**
+     * @return The maximal distance reported by the sensor or <code>0</code> if there is no sensor.
+     */
+    public float getMaximumRange() {
+        return mSensor != null ? mSensor.getMaximumRange() : 0;
+    }
+
+    /**
+     * Start ingesting the events, no-op if already started.
+     *
+     * @param listener The listener receiving the events or <code>null</code> to only record them.
+     * @return <code>false</code> if there is no proximity sensor.
+     */
+    public synchronized boolean start(Listener listener) {
+        if (mSensor == null) {
+            return false;
+        }
+        if (mThread != null) {
+            return true;
+        }
+
+        mListener = listener;
+        mThread = new HandlerThread(ProximityEventIngestor.class.getSimpleName());
+        mThread.start();
+
+        final Handler handler = new Handler(mThread.getLooper());
+        if (isBatching()) {
+            mSensorManager.registerListener(mSensorEventListener, mSensor, mSamplingPeriodUs, mMaxReportLatencyUs, handler);
+        } else {
+            mSensorManager.registerListener(mSensorEventListener, mSensor, mSamplingPeriodUs, handler);
+        }
+
+        return true;
+    }
+
+    /**
+     * Stop ingesting the events, no-op if already stopped. The recorded events are kept.
+     */
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+
+        mSensorManager.unregisterListener(mSensorEventListener);
+        mThread.quitSafely();
+        mThread = null;
+        mListener = null;
+    }
+
+    /**
+     * @return The amount of events received.
+     */
+    public synchronized long getEventCount() {
+        return mEventCount;
+    }
+
+    /**
+     * @return The shortest time between two events (in nanoseconds) or <code>0</code> if less than two events.
+     */
+    public synchronized long getMinIntervalNanos() {
+        return mEventCount < 2 ? 0 : mMinIntervalNanos;
+    }
+
+    /**
+     * @return The longest time between two events (in nanoseconds) or <code>0</code> if less than two events.
+     */
+    public synchronized long getMaxIntervalNanos() {
+        return mMaxIntervalNanos;
+    }
+
+    /**
+     * @return The mean time between two events (in nanoseconds) or <code>0</code> if less than two events.
+     */
+    public synchronized long getMeanIntervalNanos() {
+        return mEventCount < 2 ? 0 : mSumIntervalNanos / (mEventCount - 1);
+    }
+
+    /**
+     * Copy the last events, oldest first.
+     *
+     * @param values The array receiving the values, must hold at least the capacity.
+     * @param timestamps The array receiving the timestamps, must hold at least the capacity.
+     * @return The amount of events copied.
+     */
+    public synchronized int copyTo(float[] values, long[] timestamps) {
+        for (int i = 0; i < mSize; i++) {
+            final int slot = (mNext - mSize + i + mValues.length) % mValues.length;
+
+            values[i] = mValues[slot];
+            timestamps[i] = mTimestamps[slot];
+        }
+
+        return mSize;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ENGLISH, "{events=%d, batching=%b, interval min=%dms mean=%dms max=%dms}",
+                mEventCount, isBatching(), getMinIntervalNanos() / 1000000, getMeanIntervalNanos() / 1000000,
+                getMaxIntervalNanos() / 1000000);
+    }
+
+    private synchronized void record(float value, long timestampNanos) {
+        if (mEventCount > 0) {
+            final long interval = timestampNanos - mLastTimestamp;
+
+            mMinIntervalNanos = Math.min(mMinIntervalNanos, interval);
+            mMaxIntervalNanos = Math.max(mMaxIntervalNanos, interval);
+            mSumIntervalNanos += interval;
+        }
+
+        mValues[mNext] = value;
+        mTimestamps[mNext] = timestampNanos;
+        mNext = (mNext + 1) % mValues.length;
+        mSize = Math.min(mSize + 1, mValues.length);
+
+        mLastTimestamp = timestampNanos;
+        mEventCount++;
+    }
+}
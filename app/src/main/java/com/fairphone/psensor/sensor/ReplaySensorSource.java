@@ -0,0 +1,90 @@
+package com.fairphone.psensor.sensor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Source replaying a recorded trace of samples, e.g. to run the readings and the calibration logic without a device,
+ * on a plain JVM.
+ */
+public class ReplaySensorSource implements SensorSource {
+
+    private final int[] mTrace;
+    private final boolean mLoop;
+
+    private int mPosition;
+
+    /**
+     * @param trace The samples to replay, in order.
+     * @param loop <code>true</code> to start over once the end of the trace is reached, <code>false</code> to report
+     * errors (<code>-1</code>) instead.
+     */
+    public ReplaySensorSource(int[] trace, boolean loop) {
+        mTrace = Arrays.copyOf(trace, trace.length);
+        mLoop = loop;
+    }
+
+    /**
+     * Load a trace recorded as one decimal sample per line. Blank lines and lines starting with <code>#</code> are
+     * ignored.
+     *
+     * @param file The recorded trace.
+     * @param loop See {@link #ReplaySensorSource(int[], boolean)}.
+     * @return The source replaying the trace.
+     * @throws IOException if the file could not be read.
+     * @throws NumberFormatException if a line is not a sample.
+     */
+    public static ReplaySensorSource fromFile(File file, boolean loop) throws IOException {
+        int[] trace = new int[64];
+        int length = 0;
+
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                if (length == trace.length) {
+                    trace = Arrays.copyOf(trace, length * 2);
+                }
+                trace[length++] = Integer.parseInt(line);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return new ReplaySensorSource(Arrays.copyOf(trace, length), loop);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return mTrace.length > 0;
+    }
+
+    @Override
+    public synchronized int readSample() {
+        if (mPosition == mTrace.length) {
+            if (!mLoop || mTrace.length == 0) {
+                return -1;
+            }
+            mPosition = 0;
+        }
+
+        return mTrace[mPosition++];
+    }
+
+    /**
+     * Rewind the trace to its first sample.
+     */
+    @Override
+    public synchronized void release() {
+        mPosition = 0;
+    }
+}
@@ -0,0 +1,300 @@
+package com.fairphone.psensor.sensor;
+
+import java.util.Locale;
+
+/**
+ * Statistics over the last accepted sensor samples. <br>
+ * <br>
+ * Accepted samples (and their timestamps) are kept in a fixed-capacity ring buffer of primitive arrays; once full, the
+ * oldest sample is overwritten. All the statistics (mean, variance, median, median absolute deviation, min, max) are
+ * computed over the content of the buffer, whereas the accepted and rejected counts cover every sample offered since
+ * the last {@link #reset()}. <br>
+ * <br>
+ * No method but {@link #toString()} allocates memory, so an instance can be reused on the sampling path. Instances
+ * are not thread-safe.
+ */
+public final class SampleStatistics {
+
+    private final int[] mValues;
+    private final long[] mTimestamps;
+    /**
+     * Scratch buffer to compute order statistics without allocating.
+     */
+    private final int[] mSorted;
+
+    /**
+     * Index of the next slot to write in the ring buffer.
+     */
+    private int mNext;
+    /**
+     * Amount of samples in the ring buffer.
+     */
+    private int mSize;
+
+    private int mAcceptedCount;
+    private int mRejectedCount;
+
+    /**
+     * @param capacity The maximal amount of accepted samples to compute the statistics on.
+     * @throws IllegalArgumentException if the capacity is not strictly positive.
+     */
+    public SampleStatistics(int capacity) throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity (" + capacity + ") must be strictly positive");
+        }
+
+        mValues = new int[capacity];
+        mTimestamps = new long[capacity];
+        mSorted = new int[capacity];
+    }
+
+    /**
+     * Forget all the samples and counts.
+     */
+    public void reset() {
+        mNext = 0;
+        mSize = 0;
+        mAcceptedCount = 0;
+        mRejectedCount = 0;
+    }
+
+    /**
+     * Offer a sample, accepted only if it belongs to the accepted range.
+     *
+     * @param value The sample value.
+     * @param timestampNanos The time the sample was taken at (in nanoseconds, any monotonic origin).
+     * @param minValue The lower threshold (inclusive) of accepted range.
+     * @param maxValue The upper threshold (inclusive) of accepted range.
+     * @return <code>true</code> if the sample was accepted, <code>false</code> if it was rejected.
+     */
+    public boolean offer(int value, long timestampNanos, int minValue, int maxValue) {
+        if (value < minValue || maxValue < value) {
+            mRejectedCount++;
+            return false;
+        }
+
+        mValues[mNext] = value;
+        mTimestamps[mNext] = timestampNanos;
+        mNext = (mNext + 1) % mValues.length;
+        mSize = Math.min(mSize + 1, mValues.length);
+        mAcceptedCount++;
+
+        return true;
+    }
+
+    /**
+     * @return The maximal amount of samples kept.
+     */
+    public int getCapacity() {
+        return mValues.length;
+    }
+
+    /**
+     * @return The amount of samples the statistics are computed on.
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return <code>true</code> if no sample has been accepted since the last reset.
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return The amount of samples accepted since the last reset.
+     */
+    public int getAcceptedCount() {
+        return mAcceptedCount;
+    }
+
+    /**
+     * @return The amount of samples rejected since the last reset.
+     */
+    public int getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * @param index The index of the sample, from <code>0</code> (oldest) to <code>getSize() - 1</code> (newest).
+     * @return The value of the sample.
+     */
+    public int getValue(int index) {
+        return mValues[toSlot(index)];
+    }
+
+    /**
+     * @param index The index of the sample, from <code>0</code> (oldest) to <code>getSize() - 1</code> (newest).
+     * @return The timestamp of the sample (in nanoseconds).
+     */
+    public long getTimestamp(int index) {
+        return mTimestamps[toSlot(index)];
+    }
+
+    /**
+     * @return The newest sample value or <code>-1</code> if empty.
+     */
+    public int getLast() {
+        return mSize == 0 ? -1 : getValue(mSize - 1);
+    }
+
+    /**
+     * @return The mean value or <code>NaN</code> if empty.
+     */
+    public double getMean() {
+        if (mSize == 0) {
+            return Double.NaN;
+        }
+
+        long sum = 0;
+        for (int i = 0; i < mSize; i++) {
+            sum += mValues[i];
+        }
+
+        return (double) sum / mSize;
+    }
+
+    /**
+     * @return The mean value rounded to the closest integer or <code>-1</code> if empty.
+     */
+    public int getRoundedMean() {
+        return mSize == 0 ? -1 : (int) Math.round(getMean());
+    }
+
+    /**
+     * @return The (unbiased) sample variance, <code>0</code> with a single sample, or <code>NaN</code> if empty.
+     */
+    public double getVariance() {
+        if (mSize < 2) {
+            return mSize == 0 ? Double.NaN : 0;
+        }
+
+        final double mean = getMean();
+        double sumOfSquares = 0;
+        for (int i = 0; i < mSize; i++) {
+            final double delta = mValues[i] - mean;
+            sumOfSquares += delta * delta;
+        }
+
+        return sumOfSquares / (mSize - 1);
+    }
+
+    /**
+     * @return The sample standard deviation or <code>NaN</code> if empty.
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return The minimal value or <code>-1</code> if empty.
+     */
+    public int getMin() {
+        if (mSize == 0) {
+            return -1;
+        }
+
+        int min = mValues[0];
+        for (int i = 1; i < mSize; i++) {
+            min = Math.min(min, mValues[i]);
+        }
+
+        return min;
+    }
+
+    /**
+     * @return The maximal value or <code>-1</code> if empty.
+     */
+    public int getMax() {
+        if (mSize == 0) {
+            return -1;
+        }
+
+        int max = mValues[0];
+        for (int i = 1; i < mSize; i++) {
+            max = Math.max(max, mValues[i]);
+        }
+
+        return max;
+    }
+
+    /**
+     * @return The spread (max - min) or <code>-1</code> if empty.
+     */
+    public int getSpread() {
+        return mSize == 0 ? -1 : getMax() - getMin();
+    }
+
+    /**
+     * @return The median value or <code>NaN</code> if empty.
+     */
+    public double getMedian() {
+        if (mSize == 0) {
+            return Double.NaN;
+        }
+
+        System.arraycopy(mValues, 0, mSorted, 0, mSize);
+        sort(mSorted, mSize);
+
+        return median(mSorted, mSize);
+    }
+
+    /**
+     * @return The median absolute deviation from the median or <code>NaN</code> if empty.
+     */
+    public double getMedianAbsoluteDeviation() {
+        if (mSize == 0) {
+            return Double.NaN;
+        }
+
+        final double median = getMedian();
+
+        /* Deviations are multiples of 0.5, store them doubled to stay with integers. */
+        for (int i = 0; i < mSize; i++) {
+            mSorted[i] = (int) Math.abs(2 * mValues[i] - 2 * median);
+        }
+        sort(mSorted, mSize);
+
+        return median(mSorted, mSize) / 2;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH,
+                "{n=%d, accepted=%d, rejected=%d, mean=%.2f, sd=%.2f, median=%.1f, mad=%.1f, min=%d, max=%d}",
+                mSize, mAcceptedCount, mRejectedCount, getMean(), getStandardDeviation(), getMedian(),
+                getMedianAbsoluteDeviation(), getMin(), getMax());
+    }
+
+    private int toSlot(int index) {
+        if (index < 0 || mSize <= index) {
+            throw new IndexOutOfBoundsException("Index " + index + " not in [0;" + mSize + "[");
+        }
+
+        return (mNext - mSize + index + mValues.length) % mValues.length;
+    }
+
+    /**
+     * Insertion sort, allocation-free and fast for the small capacities used to sample the sensor.
+     */
+    private static void sort(int[] values, int length) {
+        for (int i = 1; i < length; i++) {
+            final int value = values[i];
+            int j = i - 1;
+
+            while (j >= 0 && values[j] > value) {
+                values[j + 1] = values[j];
+                j--;
+            }
+            values[j + 1] = value;
+        }
+    }
+
+    private static double median(int[] sorted, int length) {
+        final int middle = length / 2;
+
+        return (length % 2 == 1) ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2.0;
+    }
+}
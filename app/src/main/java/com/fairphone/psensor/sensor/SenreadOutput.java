@@ -0,0 +1,20 @@
+package com.fairphone.psensor.sensor;
+
+/**
+ * Format of the output of the <code>senread</code> tool: one <code>[RESULT] &lt;value&gt;</code> line per sample. <br>
+ * <br>
+ * The output read from the tool is parsed by {@link SenreadOutputParser}.
+ */
+public final class SenreadOutput {
+
+    /**
+     * Result prefix returned by the reading command.
+     */
+    public static final String RESULT_PREFIX = "[RESULT]";
+
+    /**
+     * Empty constructor to avoid instantiation.
+     */
+    private SenreadOutput() {
+    }
+}
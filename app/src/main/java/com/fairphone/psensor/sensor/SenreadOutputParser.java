@@ -0,0 +1,243 @@
+package com.fairphone.psensor.sensor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Byte-level parser of the output of the <code>senread</code> tool (see {@link SenreadOutput}). <br>
+ * <br>
+ * The output is read into a reusable buffer and scanned line by line for the {@link SenreadOutput#RESULT_PREFIX}
+ * marker; the digits following it are decoded straight from the buffer. Several result lines (e.g. several samples,
+ * or the output of several runs) may be read at once, and the other lines are skipped. Once the buffer is allocated,
+ * nothing is allocated while parsing. <br>
+ * <br>
+ * The input may either be read until its end (one-shot execution), or until a terminator line (long-lived shell); the
+ * bytes following the terminator are kept for the next call. Instances are not thread-safe.
+ */
+public final class SenreadOutputParser {
+
+    /**
+     * Value stored for a result line whose value is not a number.
+     */
+    public static final int INVALID_VALUE = -1;
+
+    /**
+     * Default size of the buffer (in bytes), longer lines are skipped.
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 256;
+    /**
+     * Maximal amount of digits of a value, to not overflow.
+     */
+    private static final int MAX_DIGITS = 9;
+    /**
+     * Parsed line is not a result line.
+     */
+    private static final int NOT_A_RESULT = -2;
+
+    private static final byte[] RESULT_MARKER = SenreadOutput.RESULT_PREFIX.getBytes(Charset.forName("US-ASCII"));
+
+    private final byte[] mBuffer;
+
+    private InputStream mInput;
+    /**
+     * Start of the unparsed bytes in the buffer.
+     */
+    private int mPosition;
+    /**
+     * End of the valid bytes in the buffer.
+     */
+    private int mLimit;
+    /**
+     * Whether the rest of the current line is skipped because it did not fit in the buffer.
+     */
+    private boolean mSkippingLine;
+
+    public SenreadOutputParser() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize The size of the buffer (in bytes), bounding the length of the lines parsed.
+     */
+    public SenreadOutputParser(int bufferSize) {
+        mBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * Start parsing a new input, dropping what is left of the previous one.
+     *
+     * @param input The output of the reading command.
+     */
+    public void reset(InputStream input) {
+        mInput = input;
+        mPosition = 0;
+        mLimit = 0;
+        mSkippingLine = false;
+    }
+
+    /**
+     * Read the input until its end and collect the result values.
+     *
+     * @param values The array to fill with the values, in order of appearance, {@link #INVALID_VALUE} for a result
+     * line whose value is not a number.
+     * @return The amount of result lines read, which may exceed the length of <code>values</code> (the extra values
+     * are dropped).
+     * @throws IOException if the input could not be read.
+     */
+    public int readResults(int[] values) throws IOException {
+        return readResults(values, null);
+    }
+
+    /**
+     * Read the input until a terminator line and collect the result values.
+     *
+     * @param values The array to fill with the values, in order of appearance, {@link #INVALID_VALUE} for a result
+     * line whose value is not a number.
+     * @param terminator The line (without line feed) terminating the output or <code>null</code> to read until the
+     * end of the input.
+     * @return The amount of result lines read, which may exceed the length of <code>values</code> (the extra values
+     * are dropped).
+     * @throws EOFException if the input ended before the terminator.
+     * @throws IOException if the input could not be read.
+     */
+    public int readResults(int[] values, byte[] terminator) throws IOException {
+        int count = 0;
+
+        while (true) {
+            final int lineEnd = indexOf((byte) '\n', mPosition, mLimit);
+
+            if (lineEnd < 0) {
+                if (!fill()) {
+                    if (terminator != null) {
+                        throw new EOFException("Output ended before its terminator");
+                    }
+
+                    /* The last line may not be terminated */
+                    if (!mSkippingLine) {
+                        count = collect(values, count, parseResultLine(mBuffer, mPosition, mLimit));
+                    }
+                    mPosition = mLimit;
+                    mSkippingLine = false;
+
+                    return count;
+                }
+                continue;
+            }
+
+            final int lineStart = mPosition;
+            mPosition = lineEnd + 1;
+
+            if (mSkippingLine) {
+                mSkippingLine = false;
+                continue;
+            }
+
+            if (terminator != null && equals(mBuffer, lineStart, lineEnd, terminator)) {
+                return count;
+            }
+
+            count = collect(values, count, parseResultLine(mBuffer, lineStart, lineEnd));
+        }
+    }
+
+    /**
+     * Parse a result line.
+     *
+     * @param buffer The buffer holding the line.
+     * @param start The start of the line (inclusive).
+     * @param end The end of the line (exclusive), without the line feed.
+     * @return The value, {@link #INVALID_VALUE} if the value is not a number, or {@link #NOT_A_RESULT} if the line is
+     * not a result line.
+     */
+    static int parseResultLine(byte[] buffer, int start, int end) {
+        if (end - start < RESULT_MARKER.length || !equals(buffer, start, start + RESULT_MARKER.length, RESULT_MARKER)) {
+            return NOT_A_RESULT;
+        }
+
+        int i = skipWhitespace(buffer, start + RESULT_MARKER.length, end);
+        final int digitsStart = i;
+        int value = 0;
+
+        for (; i < end && '0' <= buffer[i] && buffer[i] <= '9'; i++) {
+            value = value * 10 + (buffer[i] - '0');
+        }
+
+        if (i == digitsStart || i - digitsStart > MAX_DIGITS || skipWhitespace(buffer, i, end) != end) {
+            return INVALID_VALUE;
+        }
+
+        return value;
+    }
+
+    private static int collect(int[] values, int count, int value) {
+        if (value == NOT_A_RESULT) {
+            return count;
+        }
+
+        if (count < values.length) {
+            values[count] = value;
+        }
+
+        return count + 1;
+    }
+
+    /**
+     * Read more bytes, compacting the buffer first. A line longer than the buffer is dropped and its end skipped.
+     *
+     * @return <code>false</code> at the end of the input.
+     */
+    private boolean fill() throws IOException {
+        if (mPosition > 0) {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, mLimit - mPosition);
+            mLimit -= mPosition;
+            mPosition = 0;
+        } else if (mLimit == mBuffer.length) {
+            mLimit = 0;
+            mSkippingLine = true;
+        }
+
+        final int read = mInput.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if (read < 0) {
+            return false;
+        }
+
+        mLimit += read;
+        return true;
+    }
+
+    private int indexOf(byte b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (mBuffer[i] == b) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int skipWhitespace(byte[] buffer, int start, int end) {
+        int i = start;
+
+        while (i < end && (buffer[i] == ' ' || buffer[i] == '\t' || buffer[i] == '\r')) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static boolean equals(byte[] buffer, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer[start + i] != expected[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,31 @@
+package com.fairphone.psensor.sensor;
+
+/**
+ * Source of raw proximity sensor samples. <br>
+ * <br>
+ * Implementations must be safe to call from a background thread. A released source may be used again, in which case
+ * it lazily re-acquires whatever it needs.
+ */
+public interface SensorSource {
+
+    /**
+     * Determine whether the source can provide samples on this device.
+     *
+     * @return <code>true</code> if samples can be read, <code>false</code> if not.
+     */
+    boolean isAvailable();
+
+    /**
+     * Read one raw sample. <br>
+     * <br>
+     * This call may block until a sample is available.
+     *
+     * @return The sample (in sensor units) or <code>-1</code> if there was an error.
+     */
+    int readSample();
+
+    /**
+     * Release the resources held by the source (processes, file handles, listeners).
+     */
+    void release();
+}
@@ -0,0 +1,67 @@
+package com.fairphone.psensor.sensor;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import com.fairphone.psensor.R;
+
+import java.io.File;
+
+/**
+ * Factory for the available {@link SensorSource} implementations.
+ */
+public class SensorSources {
+
+    /**
+     * Empty constructor to avoid instantiation.
+     */
+    private SensorSources() {
+    }
+
+    /**
+     * Create the source used by default on this device. <br>
+     * <br>
+     * The raw value is read directly from the kernel node configured by
+     * {@link R.string#config_proximity_sensor_raw_value_node} if it is set and readable, or through
+     * <code>senread</code> otherwise.
+     *
+     * @param context The context.
+     * @return The source used by default.
+     */
+    public static SensorSource createDefault(Context context) {
+        final String node = context.getString(R.string.config_proximity_sensor_raw_value_node);
+
+        if (!TextUtils.isEmpty(node)) {
+            final SensorSource source = createSysfs(new File(node));
+
+            if (source.isAvailable()) {
+                return source;
+            }
+        }
+
+        return createExec();
+    }
+
+    /**
+     * @return A source reading the raw value through <code>senread</code>.
+     */
+    public static SensorSource createExec() {
+        return new ExecSensorSource();
+    }
+
+    /**
+     * @param node The kernel node exposing the raw value.
+     * @return A source reading the raw value directly from the node.
+     */
+    public static SensorSource createSysfs(File node) {
+        return new SysfsSensorSource(node);
+    }
+
+    /**
+     * @param trace The samples to replay.
+     * @return A source replaying the trace in a loop.
+     */
+    public static SensorSource createReplay(int[] trace) {
+        return new ReplaySensorSource(trace, true);
+    }
+}
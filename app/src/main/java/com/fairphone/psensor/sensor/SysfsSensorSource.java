@@ -0,0 +1,90 @@
+package com.fairphone.psensor.sensor;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Source reading samples directly from a kernel node exposing the raw value as ASCII digits (e.g. a sysfs
+ * attribute). <br>
+ * <br>
+ * The node is kept open between samples and re-read from its start, which avoids spawning any process.
+ */
+public class SysfsSensorSource implements SensorSource {
+    private static final String TAG = SysfsSensorSource.class.getSimpleName();
+
+    /**
+     * Maximal amount of bytes read from the node per sample.
+     */
+    private static final int MAX_NODE_LENGTH = 32;
+
+    private final File mNode;
+    private final byte[] mBuffer = new byte[MAX_NODE_LENGTH];
+
+    private RandomAccessFile mFile;
+
+    /**
+     * @param node The kernel node to read the raw value from.
+     */
+    public SysfsSensorSource(File node) {
+        mNode = node;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return mNode.canRead();
+    }
+
+    @Override
+    public synchronized int readSample() {
+        try {
+            if (mFile == null) {
+                mFile = new RandomAccessFile(mNode, "r");
+            }
+
+            mFile.seek(0);
+            final int length = mFile.read(mBuffer, 0, mBuffer.length);
+
+            return parseDecimal(mBuffer, length);
+        } catch (IOException e) {
+            Log.wtf(TAG, "Could not read `" + mNode + "`", e);
+            release();
+
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized void release() {
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                // fall-through
+            }
+            mFile = null;
+        }
+    }
+
+    /**
+     * Parse the first unsigned decimal number of a buffer, skipping leading whitespace.
+     *
+     * @return The number or <code>-1</code> if the buffer does not start with one.
+     */
+    private static int parseDecimal(byte[] buffer, int length) {
+        int i = 0;
+        int value = -1;
+
+        while (i < length && (buffer[i] == ' ' || buffer[i] == '\t')) {
+            i++;
+        }
+
+        for (; i < length && '0' <= buffer[i] && buffer[i] <= '9'; i++) {
+            value = (value < 0 ? 0 : value * 10) + (buffer[i] - '0');
+        }
+
+        return value;
+    }
+}
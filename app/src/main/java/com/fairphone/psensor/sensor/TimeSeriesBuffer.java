@@ -0,0 +1,158 @@
+package com.fairphone.psensor.sensor;
+
+/**
+ * Fixed-capacity time series keeping the most recent points in a ring buffer. <br>
+ * <br>
+ * Each point is the mean of a fixed amount of consecutive samples, 1 to keep the full resolution. Once all the points
+ * are used, the oldest one is overwritten, so memory stays constant however long samples are added and the series
+ * always spans the same amount of recent samples. The point being filled is reported as the newest one, so the series
+ * stays live whatever the amount of samples per point. <br>
+ * <br>
+ * All methods are thread-safe, so samples can be added from a sampling thread while the series is rendered from the
+ * UI thread. No method allocates memory.
+ */
+public final class TimeSeriesBuffer {
+
+    private final float[] mValues;
+    private final long[] mTimestamps;
+    private final int mSamplesPerPoint;
+
+    /**
+     * Index of the next point to write.
+     */
+    private int mHead;
+    /**
+     * Amount of complete points.
+     */
+    private int mSize;
+
+    /* Point being filled, not yet part of the ring. */
+    private double mPendingSum;
+    private int mPendingCount;
+    private long mPendingTimestamp;
+
+    private long mSampleCount;
+
+    /**
+     * Call to TimeSeriesBuffer(capacity, 1)
+     *
+     * @param capacity The maximal amount of points, at least 2.
+     * @throws IllegalArgumentException if the capacity is invalid.
+     * @see TimeSeriesBuffer#TimeSeriesBuffer(int, int)
+     */
+    public TimeSeriesBuffer(int capacity) throws IllegalArgumentException {
+        this(capacity, 1);
+    }
+
+    /**
+     * @param capacity The maximal amount of points, at least 2.
+     * @param samplesPerPoint The amount of samples averaged in a point, at least 1.
+     * @throws IllegalArgumentException if the capacity or the amount of samples per point is invalid.
+     */
+    public TimeSeriesBuffer(int capacity, int samplesPerPoint) throws IllegalArgumentException {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Capacity (" + capacity + ") must be at least 2");
+        }
+        if (samplesPerPoint < 1) {
+            throw new IllegalArgumentException("Samples per point (" + samplesPerPoint + ") must be at least 1");
+        }
+
+        mValues = new float[capacity];
+        mTimestamps = new long[capacity];
+        mSamplesPerPoint = samplesPerPoint;
+    }
+
+    /**
+     * Add a sample.
+     *
+     * @param value The sample value.
+     * @param timestampNanos The time the sample was taken at (in nanoseconds, any monotonic origin).
+     */
+    public synchronized void add(float value, long timestampNanos) {
+        if (mPendingCount == 0) {
+            mPendingTimestamp = timestampNanos;
+        }
+
+        mPendingSum += value;
+        mPendingCount++;
+        mSampleCount++;
+
+        if (mPendingCount == mSamplesPerPoint) {
+            mValues[mHead] = (float) (mPendingSum / mPendingCount);
+            mTimestamps[mHead] = mPendingTimestamp;
+            mHead = (mHead + 1) % mValues.length;
+            mSize = Math.min(mSize + 1, mValues.length);
+
+            mPendingSum = 0;
+            mPendingCount = 0;
+        }
+    }
+
+    /**
+     * Forget all the samples.
+     */
+    public synchronized void clear() {
+        mHead = 0;
+        mSize = 0;
+        mPendingSum = 0;
+        mPendingCount = 0;
+        mSampleCount = 0;
+    }
+
+    /**
+     * @return The maximal amount of points.
+     */
+    public int getCapacity() {
+        return mValues.length;
+    }
+
+    /**
+     * @return The amount of samples averaged in a point.
+     */
+    public int getSamplesPerPoint() {
+        return mSamplesPerPoint;
+    }
+
+    /**
+     * @return The amount of samples added since creation or the last {@link #clear()}.
+     */
+    public synchronized long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * Copy the most recent points, oldest first. <br>
+     * <br>
+     * The point being filled, if any, is copied last and replaces the oldest point once all the points are used.
+     * The timestamp of a point is the one of its first sample.
+     *
+     * @param values The array receiving the point values, must hold at least {@link #getCapacity()} values.
+     * @param timestamps The array receiving the point timestamps or <code>null</code> if not needed.
+     * @return The amount of points copied.
+     */
+    public synchronized int copyTo(float[] values, long[] timestamps) {
+        final int capacity = mValues.length;
+        final int complete = mPendingCount > 0 ? Math.min(mSize, capacity - 1) : mSize;
+        final int oldest = (mHead - complete + capacity) % capacity;
+        final int firstLength = Math.min(complete, capacity - oldest);
+
+        System.arraycopy(mValues, oldest, values, 0, firstLength);
+        System.arraycopy(mValues, 0, values, firstLength, complete - firstLength);
+
+        if (timestamps != null) {
+            System.arraycopy(mTimestamps, oldest, timestamps, 0, firstLength);
+            System.arraycopy(mTimestamps, 0, timestamps, firstLength, complete - firstLength);
+        }
+
+        if (mPendingCount == 0) {
+            return complete;
+        }
+
+        values[complete] = (float) (mPendingSum / mPendingCount);
+        if (timestamps != null) {
+            timestamps[complete] = mPendingTimestamp;
+        }
+
+        return complete + 1;
+    }
+}
@@ -0,0 +1,98 @@
+package com.fairphone.psensor.sensor;
+
+/**
+ * Histogram of integer values over a fixed range, with values outside of the range counted in the first or last
+ * bin. <br>
+ * <br>
+ * All methods are thread-safe and none allocates memory.
+ */
+public final class ValueHistogram {
+
+    private final int mMinValue;
+    private final int mBinWidth;
+    private final long[] mCounts;
+
+    private long mTotalCount;
+
+    /**
+     * @param minValue The lower bound (inclusive) of the first bin.
+     * @param maxValue The upper bound (inclusive) of the last bin.
+     * @param binCount The amount of bins.
+     * @throws IllegalArgumentException if the range is empty or the amount of bins not strictly positive.
+     */
+    public ValueHistogram(int minValue, int maxValue, int binCount) throws IllegalArgumentException {
+        if (maxValue < minValue || binCount <= 0) {
+            throw new IllegalArgumentException("Invalid histogram [" + minValue + ";" + maxValue + "] with " + binCount + " bins");
+        }
+
+        mMinValue = minValue;
+        mBinWidth = Math.max(1, (maxValue - minValue + binCount) / binCount);
+        mCounts = new long[binCount];
+    }
+
+    /**
+     * @param value The value to count.
+     */
+    public synchronized void add(int value) {
+        final int bin = Math.min(Math.max((value - mMinValue) / mBinWidth, 0), mCounts.length - 1);
+
+        mCounts[bin]++;
+        mTotalCount++;
+    }
+
+    /**
+     * Forget all the values.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+    }
+
+    /**
+     * @return The amount of bins.
+     */
+    public int getBinCount() {
+        return mCounts.length;
+    }
+
+    /**
+     * @param bin The bin index.
+     * @return The lower bound (inclusive) of the bin.
+     */
+    public int getBinStart(int bin) {
+        return mMinValue + bin * mBinWidth;
+    }
+
+    /**
+     * @return The width of a bin.
+     */
+    public int getBinWidth() {
+        return mBinWidth;
+    }
+
+    /**
+     * @return The amount of values counted.
+     */
+    public synchronized long getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Copy the bin counts.
+     *
+     * @param counts The array receiving the counts, must hold at least {@link #getBinCount()} values.
+     * @return The highest count.
+     */
+    public synchronized long copyTo(long[] counts) {
+        long maxCount = 0;
+
+        for (int i = 0; i < mCounts.length; i++) {
+            counts[i] = mCounts[i];
+            maxCount = Math.max(maxCount, mCounts[i]);
+        }
+
+        return maxCount;
+    }
+}
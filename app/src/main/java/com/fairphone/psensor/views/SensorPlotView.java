@@ -0,0 +1,232 @@
+package com.fairphone.psensor.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.fairphone.psensor.R;
+import com.fairphone.psensor.sensor.TimeSeriesBuffer;
+import com.fairphone.psensor.sensor.ValueHistogram;
+
+/**
+ * Live plot of the proximity sensor values. <br>
+ * <br>
+ * The upper part shows the raw values over time against the near and far thresholds, with the framework sensor
+ * events underneath; the lower part shows the histogram of the raw values. Both series are drawn over the same time
+ * window, from the oldest raw point to the newest point of either series, so that they line up in time although they
+ * are sampled at different rates. The events are drawn as steps, each value holding until the next event. <br>
+ * <br>
+ * Drawing reuses preallocated buffers, so redrawing does not allocate memory.
+ */
+public class SensorPlotView extends View {
+
+    /**
+     * Share of the height used by the time series, the histogram uses the rest.
+     */
+    private static final float SERIES_HEIGHT_RATIO = 0.7f;
+    /**
+     * Share of the time series height used by the framework sensor events.
+     */
+    private static final float EVENTS_HEIGHT_RATIO = 0.15f;
+
+    private final Paint mRawPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mEventPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mNearPaint = new Paint();
+    private final Paint mFarPaint = new Paint();
+    private final Paint mHistogramPaint = new Paint();
+
+    private TimeSeriesBuffer mRawSeries;
+    private TimeSeriesBuffer mEventSeries;
+    private ValueHistogram mHistogram;
+
+    private int mMinValue;
+    private int mMaxValue = 1;
+    private float mMaxEventValue = 1;
+    private int mNearThreshold = -1;
+    private int mFarThreshold = -1;
+
+    private float[] mRawPoints = new float[0];
+    private long[] mRawTimestamps = new long[0];
+    private float[] mEventPoints = new float[0];
+    private long[] mEventTimestamps = new long[0];
+    private float[] mLines = new float[0];
+    private long[] mCounts = new long[0];
+
+    public SensorPlotView(Context context) {
+        this(context, null);
+    }
+
+    public SensorPlotView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        final float density = getResources().getDisplayMetrics().density;
+
+        mRawPaint.setColor(getResources().getColor(R.color.theme_primary));
+        mRawPaint.setStrokeWidth(2 * density);
+        mEventPaint.setColor(getResources().getColor(R.color.grey));
+        mEventPaint.setStrokeWidth(2 * density);
+        mNearPaint.setColor(getResources().getColor(R.color.pink_dark));
+        mNearPaint.setStrokeWidth(density);
+        mFarPaint.setColor(getResources().getColor(R.color.blue_dark));
+        mFarPaint.setStrokeWidth(density);
+        mHistogramPaint.setColor(getResources().getColor(R.color.blue_light));
+    }
+
+    /**
+     * @param rawSeries The raw values, in [minValue;maxValue].
+     * @param eventSeries The framework sensor event values, in [0;maxEventValue].
+     * @param histogram The histogram of the raw values.
+     * @param minValue The lowest raw value plotted.
+     * @param maxValue The highest raw value plotted.
+     * @param maxEventValue The highest framework sensor event value (the sensor maximum range).
+     */
+    public void setData(TimeSeriesBuffer rawSeries, TimeSeriesBuffer eventSeries, ValueHistogram histogram,
+                        int minValue, int maxValue, float maxEventValue) {
+        mRawSeries = rawSeries;
+        mEventSeries = eventSeries;
+        mHistogram = histogram;
+        mMinValue = minValue;
+        mMaxValue = Math.max(maxValue, minValue + 1);
+        mMaxEventValue = maxEventValue > 0 ? maxEventValue : 1;
+
+        mRawPoints = new float[rawSeries.getCapacity()];
+        mRawTimestamps = new long[rawSeries.getCapacity()];
+        mEventPoints = new float[eventSeries.getCapacity()];
+        mEventTimestamps = new long[eventSeries.getCapacity()];
+        /* Up to 2 lines per event step */
+        mLines = new float[8 * Math.max(rawSeries.getCapacity(), eventSeries.getCapacity())];
+        mCounts = new long[histogram.getBinCount()];
+
+        invalidate();
+    }
+
+    /**
+     * @param nearThreshold The near threshold to plot or <code>-1</code> to hide it.
+     * @param farThreshold The far threshold to plot or <code>-1</code> to hide it.
+     */
+    public void setThresholds(int nearThreshold, int farThreshold) {
+        mNearThreshold = nearThreshold;
+        mFarThreshold = farThreshold;
+
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (mRawSeries == null) {
+            return;
+        }
+
+        final float left = getPaddingLeft();
+        final float right = getWidth() - getPaddingRight();
+        final float top = getPaddingTop();
+        final float bottom = getHeight() - getPaddingBottom();
+        final float seriesBottom = top + (bottom - top) * SERIES_HEIGHT_RATIO;
+        final float rawBottom = seriesBottom - (seriesBottom - top) * EVENTS_HEIGHT_RATIO;
+
+        drawThreshold(canvas, mNearThreshold, left, right, top, rawBottom, mNearPaint);
+        drawThreshold(canvas, mFarThreshold, left, right, top, rawBottom, mFarPaint);
+
+        final int rawSize = mRawSeries.copyTo(mRawPoints, mRawTimestamps);
+        final int eventSize = mEventSeries.copyTo(mEventPoints, mEventTimestamps);
+        if (rawSize > 0) {
+            final long start = mRawTimestamps[0];
+            final long end = Math.max(mRawTimestamps[rawSize - 1], eventSize > 0 ? mEventTimestamps[eventSize - 1] : start);
+
+            if (end > start) {
+                drawSeries(canvas, mRawPoints, mRawTimestamps, rawSize, mMinValue, mMaxValue, start, end,
+                        left, right, top, rawBottom, mRawPaint);
+                drawSteps(canvas, mEventPoints, mEventTimestamps, eventSize, 0, mMaxEventValue, start, end,
+                        left, right, rawBottom, seriesBottom, mEventPaint);
+            }
+        }
+
+        drawHistogram(canvas, left, right, seriesBottom, bottom);
+    }
+
+    private void drawThreshold(Canvas canvas, int threshold, float left, float right, float top, float bottom, Paint paint) {
+        if (threshold < 0) {
+            return;
+        }
+
+        final float y = toY(threshold, mMinValue, mMaxValue, top, bottom);
+        canvas.drawLine(left, y, right, y, paint);
+    }
+
+    private void drawSeries(Canvas canvas, float[] points, long[] timestamps, int size, float minValue, float maxValue,
+                            long start, long end, float left, float right, float top, float bottom, Paint paint) {
+        for (int i = 1; i < size; i++) {
+            mLines[4 * (i - 1)] = toX(timestamps[i - 1], start, end, left, right);
+            mLines[4 * (i - 1) + 1] = toY(points[i - 1], minValue, maxValue, top, bottom);
+            mLines[4 * (i - 1) + 2] = toX(timestamps[i], start, end, left, right);
+            mLines[4 * (i - 1) + 3] = toY(points[i], minValue, maxValue, top, bottom);
+        }
+
+        if (size > 1) {
+            canvas.drawLines(mLines, 0, 4 * (size - 1), paint);
+        }
+    }
+
+    private void drawSteps(Canvas canvas, float[] points, long[] timestamps, int size, float minValue, float maxValue,
+                           long start, long end, float left, float right, float top, float bottom, Paint paint) {
+        int count = 0;
+
+        for (int i = 0; i < size; i++) {
+            final long stepEnd = (i + 1 < size) ? timestamps[i + 1] : end;
+            if (stepEnd <= start) {
+                continue;
+            }
+
+            final float x0 = toX(timestamps[i], start, end, left, right);
+            final float x1 = toX(stepEnd, start, end, left, right);
+            final float y = toY(points[i], minValue, maxValue, top, bottom);
+
+            mLines[count++] = x0;
+            mLines[count++] = y;
+            mLines[count++] = x1;
+            mLines[count++] = y;
+
+            if (i + 1 < size) {
+                mLines[count++] = x1;
+                mLines[count++] = y;
+                mLines[count++] = x1;
+                mLines[count++] = toY(points[i + 1], minValue, maxValue, top, bottom);
+            }
+        }
+
+        if (count > 0) {
+            canvas.drawLines(mLines, 0, count, paint);
+        }
+    }
+
+    private void drawHistogram(Canvas canvas, float left, float right, float top, float bottom) {
+        final long maxCount = mHistogram.copyTo(mCounts);
+        if (maxCount == 0) {
+            return;
+        }
+
+        final float width = (right - left) / mCounts.length;
+        for (int i = 0; i < mCounts.length; i++) {
+            if (mCounts[i] > 0) {
+                final float height = (bottom - top) * mCounts[i] / maxCount;
+                canvas.drawRect(left + i * width, bottom - height, left + (i + 1) * width, bottom, mHistogramPaint);
+            }
+        }
+    }
+
+    private static float toX(long timestamp, long start, long end, float left, float right) {
+        final long clamped = Math.min(Math.max(timestamp, start), end);
+
+        return left + (float) ((right - left) * ((double) (clamped - start) / (end - start)));
+    }
+
+    private static float toY(float value, float minValue, float maxValue, float top, float bottom) {
+        final float clamped = Math.min(Math.max(value, minValue), maxValue);
+
+        return bottom - (bottom - top) * (clamped - minValue) / (maxValue - minValue);
+    }
+}
@@ -0,0 +1,44 @@
+package com.fairphone.psensor.workers;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import com.fairphone.psensor.CalibrationDatabase;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+/**
+ * Keep the latest calibrations in full and fold the older ones into the monthly aggregates (see
+ * {@link CalibrationDatabase#compact(int)}).
+ */
+public class CalibrationHistoryCompactionWorker extends Worker {
+    private static final String TAG = CalibrationHistoryCompactionWorker.class.getSimpleName();
+
+    /**
+     * Amount of latest calibrations kept in full.
+     */
+    public static final int KEEP_LATEST_CALIBRATIONS = 100;
+
+    public CalibrationHistoryCompactionWorker(
+            @NonNull Context context,
+            @NonNull WorkerParameters workerParams
+    ) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        try {
+            CalibrationDatabase.getInstance(getApplicationContext()).compact(KEEP_LATEST_CALIBRATIONS);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Could not compact the calibration history", e);
+            return Result.retry();
+        }
+
+        return Result.success();
+    }
+}
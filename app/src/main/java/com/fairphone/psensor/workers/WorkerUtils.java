@@ -1,11 +1,15 @@
 package com.fairphone.psensor.workers;
 
 import android.content.Context;
+import android.os.Build;
 
 import java.util.concurrent.TimeUnit;
 
 import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
 import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
 import androidx.work.WorkManager;
 
 public class WorkerUtils {
@@ -17,6 +21,13 @@ public class WorkerUtils {
      */
     private static final long REMINDER_GRACE_PERIOD_MS = 1000 * 60 * 60 * 24;
 
+    /**
+     * Interval between two compactions of the calibration history (in days).
+     */
+    private static final long HISTORY_COMPACTION_INTERVAL_DAYS = 7;
+
+    private static final String HISTORY_COMPACTION_WORK_NAME = "calibration_history_compaction";
+
     public static void setReminder(@NonNull Context context) {
         OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(ProximitySensorNotificationWorker.class)
                 .setInitialDelay(REMINDER_GRACE_PERIOD_MS, TimeUnit.MILLISECONDS)
@@ -30,4 +41,25 @@ public class WorkerUtils {
                 .build();
         WorkManager.getInstance(context).enqueue(request);
     }
+
+    /**
+     * Schedule the periodic compaction of the calibration history, while the device is charging (and idle when
+     * supported). <br>
+     * <br>
+     * An already scheduled compaction is kept, so this can be called on every process start.
+     */
+    public static void scheduleCalibrationHistoryCompaction(@NonNull Context context) {
+        Constraints.Builder constraints = new Constraints.Builder()
+                .setRequiresCharging(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            constraints.setRequiresDeviceIdle(true);
+        }
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(CalibrationHistoryCompactionWorker.class,
+                HISTORY_COMPACTION_INTERVAL_DAYS, TimeUnit.DAYS)
+                .setConstraints(constraints.build())
+                .build();
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(HISTORY_COMPACTION_WORK_NAME,
+                ExistingPeriodicWorkPolicy.KEEP, request);
+    }
 }
@@ -0,0 +1,286 @@
+package com.fairphone.psensor;
+
+import com.fairphone.psensor.sensor.SampleStatistics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CalibrationEngineTest {
+
+    private static final int BLOCKED_VALUE = 200;
+    private static final int MAX_VALUE = 255;
+    /**
+     * Decreases of the non-blocked value per offset compensation increment the search is run against, around the
+     * specified {@link CalibrationEngine#OFFSET_COMPENSATION_STEP}.
+     */
+    private static final int[] STEPS = {8, 16, 24, 31, 32, 33, 40, 48, 64};
+    /**
+     * Maximal amount of measurements of a search over the 16 offset compensations.
+     */
+    private static final int MAX_MEASUREMENTS = 4;
+
+    private ProximitySensorConfiguration mPersisted;
+
+    @Before
+    public void setUp() {
+        mPersisted = new ProximitySensorConfiguration();
+        mPersisted.offsetCompensation = 1;
+    }
+
+    @Test
+    public void searchTakesAtMostFourMeasurementsForEveryCurve() {
+        for (int step : STEPS) {
+            for (int start = 0; start <= MAX_VALUE + step * ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION; start++) {
+                final ScriptedProbe probe = new ScriptedProbe(start, step);
+                final CalibrationEngine.Result result = CalibrationEngine.calibrate(BLOCKED_VALUE, mPersisted, probe);
+                final String curve = "curve " + probe;
+
+                assertNotNull(curve, result);
+                assertEquals(curve, probe.getMeasurements(), result.measurements);
+                assertTrue(curve + ": " + result.measurements + " measurements", result.measurements <= MAX_MEASUREMENTS);
+                assertEquals(CalibrationEngine.OFFSET_FROM_SEARCH, result.offsetRule);
+                assertFalse(result.offsetClamped);
+
+                final int offset = result.configuration.offsetCompensation;
+                if (result.isOffsetConverged()) {
+                    assertTrue(curve, probe.isMeasured(offset));
+                    assertEquals(curve, probe.valueAt(offset), result.nonBlockedValue);
+                    assertTrue(curve, CalibrationEngine.isInTargetBand(result.nonBlockedValue));
+                } else {
+                    assertEquals(curve, probe.getLowestOffsetUpToTargetBand(), offset);
+                    if (result.nonBlockedValue >= 0) {
+                        assertEquals(curve, probe.valueAt(offset), result.nonBlockedValue);
+                        assertFalse(curve, CalibrationEngine.isInTargetBand(result.nonBlockedValue));
+                    } else {
+                        /* The highest offset compensation is kept without being measured */
+                        assertEquals(curve, ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION, offset);
+                        assertFalse(curve, probe.isMeasured(offset));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void searchConvergesOnSpecifiedStep() {
+        /* 100, 68, 36, 4, 0... */
+        final CalibrationEngine.Result result = CalibrationEngine.calibrate(BLOCKED_VALUE, mPersisted, new ScriptedProbe(100, 32));
+
+        assertTrue(result.isOffsetConverged());
+        assertEquals(2, result.configuration.offsetCompensation);
+        assertEquals(36, result.nonBlockedValue);
+        assertEquals(BLOCKED_VALUE - CalibrationEngine.NEAR_THRESHOLD_FROM_BLOCKED_VALUE, result.configuration.nearThreshold);
+        assertEquals(result.configuration.nearThreshold - CalibrationEngine.FAR_THRESHOLD_FROM_NEAR_THRESHOLD, result.configuration.farThreshold);
+    }
+
+    @Test
+    public void searchFailsIfMeasurementFails() {
+        final CalibrationEngine.Result result = CalibrationEngine.calibrate(BLOCKED_VALUE, mPersisted, new CalibrationEngine.OffsetProbe() {
+            @Override
+            public int measureNonBlockedValue(int offsetCompensation) {
+                return -1;
+            }
+        });
+
+        assertNull(result);
+    }
+
+    @Test
+    public void convergedSearchIsConfirmedBelowTargetBand() {
+        final CalibrationEngine.Result result = CalibrationEngine.calibrate(BLOCKED_VALUE, mPersisted, new ScriptedProbe(100, 32));
+
+        assertTrue(CalibrationEngine.isConfirmedByNonBlockedValue(20, result));
+        assertTrue(CalibrationEngine.isConfirmedByNonBlockedValue(40, result));
+        assertFalse(CalibrationEngine.isConfirmedByNonBlockedValue(0, result));
+        assertFalse(CalibrationEngine.isConfirmedByNonBlockedValue(-1, result));
+        assertFalse(CalibrationEngine.isConfirmedByNonBlockedValue(result.configuration.farThreshold, result));
+    }
+
+    @Test
+    public void searchNotConvergedIsConfirmedInTargetBandOnly() {
+        /* Saturated at all offset compensations: the highest is kept without being measured */
+        final CalibrationEngine.Result result = CalibrationEngine.calibrate(BLOCKED_VALUE, mPersisted, new ScriptedProbe(MAX_VALUE * 2, 1));
+
+        assertFalse(result.isOffsetConverged());
+        assertEquals(ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION, result.configuration.offsetCompensation);
+        assertEquals(-1, result.nonBlockedValue);
+
+        assertFalse(CalibrationEngine.isConfirmedByNonBlockedValue(20, result));
+        assertFalse(CalibrationEngine.isConfirmedByNonBlockedValue(CalibrationEngine.TARGET_NON_BLOCKED_MIN_VALUE - 1, result));
+        assertTrue(CalibrationEngine.isConfirmedByNonBlockedValue(CalibrationEngine.TARGET_NON_BLOCKED_MIN_VALUE, result));
+        assertTrue(CalibrationEngine.isConfirmedByNonBlockedValue(CalibrationEngine.TARGET_NON_BLOCKED_MAX_VALUE, result));
+        assertFalse(CalibrationEngine.isConfirmedByNonBlockedValue(CalibrationEngine.TARGET_NON_BLOCKED_MAX_VALUE + 1, result));
+    }
+
+    @Test
+    public void computedOffsetIsConfirmedBelowFarThreshold() {
+        final CalibrationEngine.Result result = CalibrationEngine.calibrate(BLOCKED_VALUE, 20, mPersisted);
+
+        assertEquals(CalibrationEngine.OFFSET_FROM_NON_BLOCKED_VALUE, result.offsetRule);
+        assertTrue(CalibrationEngine.isConfirmedByNonBlockedValue(20, result));
+        assertFalse(CalibrationEngine.isConfirmedByNonBlockedValue(0, result));
+    }
+
+    @Test
+    public void thresholdsAreDerivedFromBlockedValue() {
+        final CalibrationEngine.Result result = CalibrationEngine.calibrate(BLOCKED_VALUE, 40, mPersisted);
+
+        assertEquals(BLOCKED_VALUE, result.blockedValue);
+        assertEquals(BLOCKED_VALUE - 30, result.configuration.nearThreshold);
+        assertEquals(BLOCKED_VALUE - 60, result.configuration.farThreshold);
+    }
+
+    @Test
+    public void zeroNonBlockedValueLowersPersistedOffset() {
+        mPersisted.offsetCompensation = 5;
+        final CalibrationEngine.Result result = CalibrationEngine.calibrate(BLOCKED_VALUE, 0, mPersisted);
+
+        assertEquals(CalibrationEngine.OFFSET_FROM_PERSISTED_OFFSET, result.offsetRule);
+        assertEquals(3, result.configuration.offsetCompensation);
+        assertEquals(5, result.persistedOffsetCompensation);
+        assertFalse(result.offsetClamped);
+    }
+
+    @Test
+    public void nonBlockedValueRaisesPersistedOffsetByWholeSteps() {
+        mPersisted.offsetCompensation = 5;
+        /* Non-blocked value, offset compensation: persisted + floor(value / 32) - 1 */
+        final int[][] cases = {{1, 4}, {31, 4}, {32, 5}, {63, 5}, {64, 6}, {100, 7}, {255, 11}};
+
+        for (int[] c : cases) {
+            final CalibrationEngine.Result result = CalibrationEngine.calibrate(BLOCKED_VALUE, c[0], mPersisted);
+            final String value = "non-blocked value " + c[0];
+
+            assertEquals(value, CalibrationEngine.OFFSET_FROM_NON_BLOCKED_VALUE, result.offsetRule);
+            assertEquals(value, c[1], result.configuration.offsetCompensation);
+            assertEquals(value, c[0], result.nonBlockedValue);
+            assertFalse(value, result.offsetClamped);
+        }
+    }
+
+    @Test
+    public void offsetIsClampedToLowestOffset() {
+        mPersisted.offsetCompensation = 1;
+
+        final CalibrationEngine.Result zero = CalibrationEngine.calibrate(BLOCKED_VALUE, 0, mPersisted);
+        assertEquals(ProximitySensorConfiguration.MIN_OFFSET_COMPENSATION, zero.configuration.offsetCompensation);
+        assertTrue(zero.offsetClamped);
+
+        mPersisted.offsetCompensation = 0;
+
+        final CalibrationEngine.Result low = CalibrationEngine.calibrate(BLOCKED_VALUE, 20, mPersisted);
+        assertEquals(ProximitySensorConfiguration.MIN_OFFSET_COMPENSATION, low.configuration.offsetCompensation);
+        assertTrue(low.offsetClamped);
+    }
+
+    @Test
+    public void offsetIsClampedToHighestOffset() {
+        mPersisted.offsetCompensation = 14;
+
+        final CalibrationEngine.Result exact = CalibrationEngine.calibrate(BLOCKED_VALUE, 64, mPersisted);
+        assertEquals(ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION, exact.configuration.offsetCompensation);
+        assertFalse(exact.offsetClamped);
+
+        final CalibrationEngine.Result high = CalibrationEngine.calibrate(BLOCKED_VALUE, 200, mPersisted);
+        assertEquals(ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION, high.configuration.offsetCompensation);
+        assertTrue(high.offsetClamped);
+    }
+
+    @Test
+    public void statisticsAreCalibratedFromTheirRoundedMeans() {
+        final SampleStatistics blocked = new SampleStatistics(4);
+        final SampleStatistics nonBlocked = new SampleStatistics(4);
+        blocked.offer(199, 0, 0, 255);
+        blocked.offer(202, 0, 0, 255);
+        nonBlocked.offer(63, 0, 0, 255);
+        nonBlocked.offer(66, 0, 0, 255);
+
+        final CalibrationEngine.Result result = CalibrationEngine.calibrate(blocked, nonBlocked, mPersisted);
+
+        assertEquals(201, result.blockedValue);
+        assertEquals(65, result.nonBlockedValue);
+        assertEquals(mPersisted.offsetCompensation + 1, result.configuration.offsetCompensation);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBlockedStatistics() {
+        final SampleStatistics nonBlocked = new SampleStatistics(4);
+        nonBlocked.offer(40, 0, 0, 255);
+
+        CalibrationEngine.calibrate(new SampleStatistics(4), nonBlocked, mPersisted);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyNonBlockedStatistics() {
+        final SampleStatistics blocked = new SampleStatistics(4);
+        blocked.offer(BLOCKED_VALUE, 0, 0, 255);
+
+        CalibrationEngine.calibrate(blocked, new SampleStatistics(4), mPersisted);
+    }
+
+    /**
+     * Probe returning the values of a linear curve saturated to the sensor range, and recording the measurements.
+     */
+    private static final class ScriptedProbe implements CalibrationEngine.OffsetProbe {
+        private final int mStart;
+        private final int mStep;
+        private final boolean[] mMeasured = new boolean[ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION + 1];
+        private int mMeasurements;
+
+        /**
+         * @param start The value at the lowest offset compensation, before saturation.
+         * @param step The decrease of the value per offset compensation increment.
+         */
+        ScriptedProbe(int start, int step) {
+            mStart = start;
+            mStep = step;
+        }
+
+        int valueAt(int offsetCompensation) {
+            return Math.max(0, Math.min(MAX_VALUE, mStart - mStep * offsetCompensation));
+        }
+
+        /**
+         * @return The lowest offset compensation with a value up to the target band, or the highest one if none.
+         */
+        int getLowestOffsetUpToTargetBand() {
+            for (int offset = ProximitySensorConfiguration.MIN_OFFSET_COMPENSATION; offset < ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION; offset++) {
+                if (valueAt(offset) <= CalibrationEngine.TARGET_NON_BLOCKED_MAX_VALUE) {
+                    return offset;
+                }
+            }
+            return ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION;
+        }
+
+        boolean isMeasured(int offsetCompensation) {
+            return mMeasured[offsetCompensation];
+        }
+
+        int getMeasurements() {
+            return mMeasurements;
+        }
+
+        @Override
+        public int measureNonBlockedValue(int offsetCompensation) {
+            assertTrue("offset " + offsetCompensation + " out of range",
+                    ProximitySensorConfiguration.MIN_OFFSET_COMPENSATION <= offsetCompensation
+                            && offsetCompensation <= ProximitySensorConfiguration.MAX_OFFSET_COMPENSATION);
+            assertFalse("offset " + offsetCompensation + " measured twice", mMeasured[offsetCompensation]);
+
+            mMeasured[offsetCompensation] = true;
+            mMeasurements++;
+            return valueAt(offsetCompensation);
+        }
+
+        @Override
+        public String toString() {
+            return mStart + " - " + mStep + " * offset";
+        }
+    }
+}
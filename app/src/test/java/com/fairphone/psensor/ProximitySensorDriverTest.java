@@ -0,0 +1,193 @@
+package com.fairphone.psensor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProximitySensorDriverTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+    private ProximitySensorDriver mDriver;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = mFolder.getRoot();
+        writeAttribute(ProximitySensorDriver.ATTRIBUTE_OFFSET_COMPENSATION, "3\n");
+        writeAttribute(ProximitySensorDriver.ATTRIBUTE_NEAR_THRESHOLD, "200\n");
+        writeAttribute(ProximitySensorDriver.ATTRIBUTE_FAR_THRESHOLD, "170\n");
+
+        mDriver = new ProximitySensorDriver(mDirectory);
+    }
+
+    @Test
+    public void isAvailableWithAllAttributes() {
+        assertTrue(mDriver.isAvailable());
+
+        assertTrue(new File(mDirectory, ProximitySensorDriver.ATTRIBUTE_FAR_THRESHOLD).delete());
+        assertFalse(mDriver.isAvailable());
+    }
+
+    @Test
+    public void readsAttributes() {
+        assertConfiguration(3, 200, 170, mDriver.read());
+    }
+
+    @Test
+    public void isRunningSameValuesOnly() throws IOException {
+        assertTrue(mDriver.isRunning(configuration(3, 200, 170)));
+        assertFalse(mDriver.isRunning(configuration(3, 200, 171)));
+
+        writeAttribute(ProximitySensorDriver.ATTRIBUTE_OFFSET_COMPENSATION, "offset\n");
+        assertFalse(mDriver.isRunning(configuration(3, 200, 170)));
+    }
+
+    @Test
+    public void appliesAndReadsBack() throws IOException {
+        assertTrue(mDriver.apply(configuration(5, 250, 220)));
+
+        assertEquals("5\n", readAttribute(ProximitySensorDriver.ATTRIBUTE_OFFSET_COMPENSATION));
+        assertEquals("250\n", readAttribute(ProximitySensorDriver.ATTRIBUTE_NEAR_THRESHOLD));
+        assertEquals("220\n", readAttribute(ProximitySensorDriver.ATTRIBUTE_FAR_THRESHOLD));
+        assertConfiguration(5, 250, 220, mDriver.read());
+    }
+
+    @Test
+    public void failsIfReadBackDiffers() throws IOException {
+        /* Both thresholds are backed by the same file: the far threshold overwrites the near threshold */
+        final File nearThreshold = new File(mDirectory, ProximitySensorDriver.ATTRIBUTE_NEAR_THRESHOLD);
+        final File farThreshold = new File(mDirectory, ProximitySensorDriver.ATTRIBUTE_FAR_THRESHOLD);
+        assertTrue(farThreshold.delete());
+        Files.createSymbolicLink(farThreshold.toPath(), nearThreshold.toPath());
+
+        assertFalse(mDriver.apply(configuration(5, 250, 220)));
+        assertConfiguration(5, 220, 220, mDriver.read());
+    }
+
+    @Test
+    public void failsToReadNonNumericAttribute() throws IOException {
+        writeAttribute(ProximitySensorDriver.ATTRIBUTE_NEAR_THRESHOLD, "near\n");
+
+        assertNull(mDriver.read());
+    }
+
+    @Test
+    public void failsToReadEmptyAttribute() throws IOException {
+        writeAttribute(ProximitySensorDriver.ATTRIBUTE_OFFSET_COMPENSATION, "");
+
+        assertNull(mDriver.read());
+    }
+
+    @Test
+    public void failsToApplyOverNonWritableAttribute() throws IOException {
+        final File farThreshold = new File(mDirectory, ProximitySensorDriver.ATTRIBUTE_FAR_THRESHOLD);
+        assertTrue(farThreshold.delete());
+        assertTrue(farThreshold.mkdir());
+
+        assertFalse(mDriver.apply(configuration(5, 250, 220)));
+    }
+
+    @Test
+    public void keepsConfirmedConfiguration() {
+        final int value = mDriver.applyAndConfirm(configuration(5, 250, 220), new ProximitySensorDriver.Confirmation() {
+            @Override
+            public int confirm(ProximitySensorConfiguration configuration) {
+                assertConfiguration(5, 250, 220, mDriver.read());
+                return 40;
+            }
+        });
+
+        assertEquals(40, value);
+        assertConfiguration(5, 250, 220, mDriver.read());
+    }
+
+    @Test
+    public void restoresConfigurationIfNotConfirmed() {
+        final int value = mDriver.applyAndConfirm(configuration(5, 250, 220), new ProximitySensorDriver.Confirmation() {
+            @Override
+            public int confirm(ProximitySensorConfiguration configuration) {
+                assertConfiguration(5, 250, 220, mDriver.read());
+                return -1;
+            }
+        });
+
+        assertEquals(-1, value);
+        assertConfiguration(3, 200, 170, mDriver.read());
+    }
+
+    @Test
+    public void restoresConfigurationIfConfirmedByZeroValue() {
+        final int value = mDriver.applyAndConfirm(configuration(5, 250, 220), new ProximitySensorDriver.Confirmation() {
+            @Override
+            public int confirm(ProximitySensorConfiguration configuration) {
+                return CalibrationEngine.isConfirmedByNonBlockedValue(0, configuration) ? 0 : -1;
+            }
+        });
+
+        assertEquals(-1, value);
+        assertConfiguration(3, 200, 170, mDriver.read());
+    }
+
+    @Test
+    public void doesNotConfirmConfigurationNotApplied() {
+        final File farThreshold = new File(mDirectory, ProximitySensorDriver.ATTRIBUTE_FAR_THRESHOLD);
+        assertTrue(farThreshold.delete());
+        assertTrue(farThreshold.mkdir());
+
+        final int value = mDriver.applyAndConfirm(configuration(5, 250, 220), new ProximitySensorDriver.Confirmation() {
+            @Override
+            public int confirm(ProximitySensorConfiguration configuration) {
+                throw new AssertionError("Confirmation of a configuration not applied");
+            }
+        });
+
+        assertEquals(-1, value);
+    }
+
+    private static ProximitySensorConfiguration configuration(int offsetCompensation, int nearThreshold, int farThreshold) {
+        final ProximitySensorConfiguration configuration = new ProximitySensorConfiguration();
+        configuration.offsetCompensation = offsetCompensation;
+        configuration.nearThreshold = nearThreshold;
+        configuration.farThreshold = farThreshold;
+        return configuration;
+    }
+
+    private static void assertConfiguration(int offsetCompensation, int nearThreshold, int farThreshold,
+                                            ProximitySensorConfiguration configuration) {
+        assertNotNull(configuration);
+        assertEquals(offsetCompensation, configuration.offsetCompensation);
+        assertEquals(nearThreshold, configuration.nearThreshold);
+        assertEquals(farThreshold, configuration.farThreshold);
+    }
+
+    private void writeAttribute(String name, String content) throws IOException {
+        final FileOutputStream output = new FileOutputStream(new File(mDirectory, name));
+
+        try {
+            output.write(content.getBytes(ASCII));
+        } finally {
+            output.close();
+        }
+    }
+
+    private String readAttribute(String name) throws IOException {
+        return new String(Files.readAllBytes(new File(mDirectory, name).toPath()), ASCII);
+    }
+}
@@ -0,0 +1,178 @@
+package com.fairphone.psensor.sensor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PackedSamplesTest {
+
+    /**
+     * Amount of samples of a calibration reading.
+     */
+    private static final int SAMPLES = 8;
+    /**
+     * Time between two samples of a calibration reading (in nanoseconds).
+     */
+    private static final long DELAY_NANOS = 100000000L;
+
+    @Test
+    public void packsVersionCountsValuesAndDelays() {
+        final SampleStatistics statistics = new SampleStatistics(4);
+        statistics.offer(0, 1000000L, 0, 255);
+        statistics.offer(-1, 1100000L, 0, 255);
+        statistics.offer(255, 1300000L, 0, 255);
+        statistics.offer(127, 1300000L, 0, 255);
+
+        /* Delays of 300us = 0b10_0101100 and 0us */
+        assertArrayEquals(bytes(1, 1, 3, 1, 0, 255, 127, 0xAC, 0x02, 0), PackedSamples.pack(statistics));
+    }
+
+    @Test
+    public void packsCountsAsVarints() {
+        final SampleStatistics statistics = new SampleStatistics(4);
+        for (int i = 0; i < 300; i++) {
+            statistics.offer(-1, 0, 0, 255);
+        }
+
+        /* 300 = 0b10_0101100 rejected samples */
+        assertArrayEquals(bytes(1, 1, 0, 0xAC, 0x02), PackedSamples.pack(statistics));
+    }
+
+    @Test
+    public void unpacksPackedSamples() {
+        final SampleStatistics blocked = reading(200, 3);
+        final SampleStatistics nonBlocked = reading(40, 0);
+
+        final PackedSamples samples = PackedSamples.unpack(PackedSamples.pack(blocked, nonBlocked));
+
+        assertEquals(2, samples.getSeriesCount());
+        assertSeries(blocked, samples, 0);
+        assertSeries(nonBlocked, samples, 1);
+    }
+
+    @Test
+    public void truncatesDelaysToMicroseconds() {
+        final SampleStatistics statistics = new SampleStatistics(3);
+        statistics.offer(1, 0, 0, 255);
+        statistics.offer(2, 1999, 0, 255);
+        statistics.offer(3, 123456789L, 0, 255);
+
+        final PackedSamples samples = PackedSamples.unpack(PackedSamples.pack(statistics));
+
+        assertArrayEquals(new long[]{1, 123454}, samples.getDelaysMicros(0));
+    }
+
+    @Test
+    public void unpacksEmptySeries() {
+        final PackedSamples samples = PackedSamples.unpack(PackedSamples.pack(new SampleStatistics(4)));
+
+        assertEquals(1, samples.getSeriesCount());
+        assertEquals(0, samples.getValues(0).length);
+        assertEquals(0, samples.getDelaysMicros(0).length);
+        assertEquals(0, samples.getRejectedCount(0));
+    }
+
+    @Test
+    public void packsCalibrationReadingsIn64Bytes() {
+        assertEquals(64, PackedSamples.pack(reading(200, 0), reading(40, 0)).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsValueAboveMaxValue() {
+        final SampleStatistics statistics = new SampleStatistics(4);
+        statistics.offer(PackedSamples.MAX_VALUE + 1, 0, 0, 1023);
+
+        PackedSamples.pack(statistics);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeValue() {
+        final SampleStatistics statistics = new SampleStatistics(4);
+        statistics.offer(-2, 0, -2, 255);
+
+        PackedSamples.pack(statistics);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDecreasingTimestamps() {
+        final SampleStatistics statistics = new SampleStatistics(4);
+        statistics.offer(10, 2000, 0, 255);
+        statistics.offer(11, 1000, 0, 255);
+
+        PackedSamples.pack(statistics);
+    }
+
+    @Test
+    public void rejectsTruncatedSamples() {
+        final byte[] packed = PackedSamples.pack(reading(200, 3), reading(40, 0));
+
+        for (int length = 0; length < packed.length; length++) {
+            try {
+                PackedSamples.unpack(Arrays.copyOf(packed, length));
+                fail("Samples truncated to " + length + " bytes unpacked");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownVersion() {
+        final byte[] packed = PackedSamples.pack(reading(200, 0));
+        packed[0] = PackedSamples.FORMAT_VERSION + 1;
+
+        PackedSamples.unpack(packed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsVarintLongerThan64Bits() {
+        PackedSamples.unpack(bytes(1, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01));
+    }
+
+    /**
+     * @return The statistics of a calibration reading: {@link #SAMPLES} values around <code>value</code> taken about
+     * {@link #DELAY_NANOS} apart, after <code>rejected</code> failed readings.
+     */
+    private static SampleStatistics reading(int value, int rejected) {
+        final SampleStatistics statistics = new SampleStatistics(SAMPLES);
+        long timestamp = 5000000000L;
+
+        for (int i = 0; i < rejected; i++) {
+            statistics.offer(-1, timestamp, 0, 255);
+        }
+        for (int i = 0; i < SAMPLES; i++) {
+            timestamp += DELAY_NANOS + 1000L * i;
+            statistics.offer(value + i % 3, timestamp, 0, 255);
+        }
+
+        return statistics;
+    }
+
+    private static void assertSeries(SampleStatistics expected, PackedSamples samples, int series) {
+        final int[] values = samples.getValues(series);
+        final long[] delays = samples.getDelaysMicros(series);
+
+        assertEquals(expected.getSize(), values.length);
+        assertEquals(expected.getSize() - 1, delays.length);
+        assertEquals(expected.getRejectedCount(), samples.getRejectedCount(series));
+
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("value " + i, expected.getValue(i), values[i]);
+        }
+        for (int i = 0; i < delays.length; i++) {
+            assertEquals("delay " + i, (expected.getTimestamp(i + 1) - expected.getTimestamp(i)) / 1000, delays[i]);
+        }
+    }
+
+    private static byte[] bytes(int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
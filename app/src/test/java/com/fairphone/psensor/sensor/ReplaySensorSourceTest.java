@@ -0,0 +1,179 @@
+package com.fairphone.psensor.sensor;
+
+import com.fairphone.psensor.helpers.ProximitySensorHelper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplaySensorSourceTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void replaysTraceThenFails() {
+        final SensorSource source = new ReplaySensorSource(new int[]{10, 20, 30}, false);
+
+        assertTrue(source.isAvailable());
+        assertArrayEquals(new int[]{10, 20, 30, -1, -1}, readSamples(source, 5));
+    }
+
+    @Test
+    public void loopsOverTrace() {
+        final SensorSource source = new ReplaySensorSource(new int[]{10, 20, 30}, true);
+
+        assertArrayEquals(new int[]{10, 20, 30, 10, 20, 30, 10}, readSamples(source, 7));
+    }
+
+    @Test
+    public void rewindsOnRelease() {
+        final SensorSource source = new ReplaySensorSource(new int[]{10, 20, 30}, false);
+        readSamples(source, 2);
+        source.release();
+
+        assertArrayEquals(new int[]{10, 20, 30, -1}, readSamples(source, 4));
+    }
+
+    @Test
+    public void emptyTraceIsNotAvailable() {
+        final SensorSource source = new ReplaySensorSource(new int[0], true);
+
+        assertFalse(source.isAvailable());
+        assertEquals(-1, source.readSample());
+    }
+
+    @Test
+    public void loadsTraceSkippingCommentsAndBlankLines() throws IOException {
+        final File file = mFolder.newFile("trace.txt");
+        final StringBuilder trace = new StringBuilder("# recorded on a FP2\n\n");
+        for (int i = 0; i < 100; i++) {
+            trace.append(' ').append(i).append(" \n");
+        }
+        write(file, trace.toString());
+
+        final SensorSource source = ReplaySensorSource.fromFile(file, false);
+        final int[] expected = new int[101];
+        for (int i = 0; i < 100; i++) {
+            expected[i] = i;
+        }
+        expected[100] = -1;
+
+        assertArrayEquals(expected, readSamples(source, 101));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsTraceWithInvalidSample() throws IOException {
+        final File file = mFolder.newFile("trace.txt");
+        write(file, "12\nfar\n");
+
+        ReplaySensorSource.fromFile(file, false);
+    }
+
+    @Test
+    public void readsBatchAndNotifiesEachSample() {
+        final SensorSource source = new ReplaySensorSource(new int[]{10, 20, 30}, false);
+        final int[] values = new int[4];
+        final long[] timestamps = new long[4];
+        final List<Integer> notified = new ArrayList<>();
+
+        final int count = ProximitySensorHelper.readBatch(source, values, timestamps, 4, 0, new ProximitySensorHelper.BatchListener() {
+            @Override
+            public void onSample(int value, long timestamp_ns) {
+                notified.add(value);
+            }
+        });
+
+        assertEquals(4, count);
+        assertArrayEquals(new int[]{10, 20, 30, -1}, values);
+        assertEquals(Arrays.asList(10, 20, 30, -1), notified);
+    }
+
+    @Test
+    public void stopsBatchOnceInterrupted() {
+        final SensorSource source = new ReplaySensorSource(new int[]{10, 20, 30}, false);
+        final int[] values = new int[3];
+        final long[] timestamps = new long[3];
+
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals(1, ProximitySensorHelper.readBatch(source, values, timestamps, 3, 0));
+            assertEquals(10, values[0]);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBatchLongerThanArrays() {
+        ProximitySensorHelper.readBatch(new ReplaySensorSource(new int[]{10}, true), new int[2], new long[3], 3, 0);
+    }
+
+    @Test
+    public void adaptiveReadStopsOnceValuesConverge() {
+        final SensorSource source = new ReplaySensorSource(new int[]{-1, 100, 102, 200}, false);
+        final SampleStatistics statistics = new SampleStatistics(ProximitySensorHelper.ADAPTIVE_READ_MAX_N_TIMES);
+
+        final int mean = ProximitySensorHelper.readAdaptive(source, ProximitySensorHelper.READ_MIN_LIMIT,
+                ProximitySensorHelper.READ_MAX_LIMIT, 2, 10000, statistics);
+
+        assertEquals(101, mean);
+        assertEquals(2, statistics.getAcceptedCount());
+        assertEquals(1, statistics.getRejectedCount());
+        assertEquals(200, source.readSample());
+    }
+
+    @Test
+    public void adaptiveReadStopsAfterMaximalAmountOfReadings() {
+        final SensorSource source = new ReplaySensorSource(new int[]{0, 50}, true);
+        final SampleStatistics statistics = new SampleStatistics(ProximitySensorHelper.ADAPTIVE_READ_MAX_N_TIMES);
+
+        final int mean = ProximitySensorHelper.readAdaptive(source, ProximitySensorHelper.READ_MIN_LIMIT,
+                ProximitySensorHelper.READ_MAX_LIMIT, 2, 10000, statistics);
+
+        assertEquals(25, mean);
+        assertEquals(ProximitySensorHelper.ADAPTIVE_READ_MAX_N_TIMES, statistics.getAcceptedCount());
+    }
+
+    @Test
+    public void adaptiveReadFailsIfNoValueIsAccepted() {
+        final SensorSource source = new ReplaySensorSource(new int[]{-1}, true);
+        final SampleStatistics statistics = new SampleStatistics(ProximitySensorHelper.ADAPTIVE_READ_MAX_N_TIMES);
+
+        final int mean = ProximitySensorHelper.readAdaptive(source, ProximitySensorHelper.READ_MIN_LIMIT,
+                ProximitySensorHelper.READ_MAX_LIMIT, 2, 10000, statistics);
+
+        assertEquals(-1, mean);
+        assertTrue(statistics.isEmpty());
+        assertEquals(ProximitySensorHelper.ADAPTIVE_READ_MAX_N_TIMES, statistics.getRejectedCount());
+    }
+
+    private static int[] readSamples(SensorSource source, int count) {
+        final int[] samples = new int[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = source.readSample();
+        }
+        return samples;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.fairphone.psensor.sensor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SenreadOutputParserTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] TERMINATOR = "__END__".getBytes(ASCII);
+
+    private SenreadOutputParser mParser;
+    private int[] mValues;
+
+    @Before
+    public void setUp() {
+        mParser = new SenreadOutputParser();
+        mValues = new int[4];
+    }
+
+    @Test
+    public void readsSingleResultUntilEnd() throws IOException {
+        mParser.reset(input("Reading sensor\n[RESULT] 42\n"));
+
+        assertEquals(1, mParser.readResults(mValues));
+        assertEquals(42, mValues[0]);
+    }
+
+    @Test
+    public void readsUnterminatedLastLine() throws IOException {
+        mParser.reset(input("[RESULT] 7"));
+
+        assertEquals(1, mParser.readResults(mValues));
+        assertEquals(7, mValues[0]);
+    }
+
+    @Test
+    public void readsSeveralResultsSkippingOtherLines() throws IOException {
+        mParser.reset(input("[RESULT] 1\nnoise\n[RESULT]\t2 \r\n\n[RESULT] 3\n"));
+
+        assertEquals(3, mParser.readResults(mValues));
+        assertArrayEquals(new int[]{1, 2, 3}, new int[]{mValues[0], mValues[1], mValues[2]});
+    }
+
+    @Test
+    public void countsResultsBeyondValuesLength() throws IOException {
+        final int[] values = new int[2];
+        mParser.reset(input("[RESULT] 1\n[RESULT] 2\n[RESULT] 3\n"));
+
+        assertEquals(3, mParser.readResults(values));
+        assertArrayEquals(new int[]{1, 2}, values);
+    }
+
+    @Test
+    public void reportsInvalidValues() throws IOException {
+        mParser.reset(input("[RESULT] abc\n[RESULT]\n[RESULT] 12x\n[RESULT] 1234567890\n"));
+
+        assertEquals(4, mParser.readResults(mValues));
+        for (int value : mValues) {
+            assertEquals(SenreadOutputParser.INVALID_VALUE, value);
+        }
+    }
+
+    @Test
+    public void readsSamplesUntilTerminator() throws IOException {
+        mParser.reset(input("[RESULT] 10\n__END__\n[RESULT] 11\nnoise\n__END__\n__END__\n"));
+
+        assertEquals(1, mParser.readResults(mValues, TERMINATOR));
+        assertEquals(10, mValues[0]);
+
+        assertEquals(1, mParser.readResults(mValues, TERMINATOR));
+        assertEquals(11, mValues[0]);
+
+        assertEquals(0, mParser.readResults(mValues, TERMINATOR));
+    }
+
+    @Test
+    public void failsIfInputEndsBeforeTerminator() throws IOException {
+        mParser.reset(input("[RESULT] 10\n"));
+
+        try {
+            mParser.readResults(mValues, TERMINATOR);
+            fail("Expected an EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void skipsLinesLongerThanBuffer() throws IOException {
+        final SenreadOutputParser parser = new SenreadOutputParser(16);
+        parser.reset(input("[RESULT] 1 but this line is much too long\n[RESULT] 2\n__END__\n"));
+
+        assertEquals(1, parser.readResults(mValues, TERMINATOR));
+        assertEquals(2, mValues[0]);
+    }
+
+    @Test
+    public void skipsUnterminatedLastLineLongerThanBuffer() throws IOException {
+        final SenreadOutputParser parser = new SenreadOutputParser(16);
+        parser.reset(input("[RESULT] 2\n[RESULT] 3 but this line is much too long"));
+
+        assertEquals(1, parser.readResults(mValues));
+        assertEquals(2, mValues[0]);
+    }
+
+    @Test
+    public void readsInputDeliveredByteByByte() throws IOException {
+        mParser.reset(new OneByteInputStream(input("[RESULT] 10\n__END__\n[RESULT] 255\n__END__\n")));
+
+        assertEquals(1, mParser.readResults(mValues, TERMINATOR));
+        assertEquals(10, mValues[0]);
+        assertEquals(1, mParser.readResults(mValues, TERMINATOR));
+        assertEquals(255, mValues[0]);
+    }
+
+    @Test
+    public void dropsPreviousInputOnReset() throws IOException {
+        mParser.reset(input("[RESULT] 1\n__END__\n[RESULT] 2\n__END__\n"));
+        mParser.readResults(mValues, TERMINATOR);
+
+        mParser.reset(input("[RESULT] 3\n"));
+        assertEquals(1, mParser.readResults(mValues));
+        assertEquals(3, mValues[0]);
+    }
+
+    private static InputStream input(String output) {
+        return new ByteArrayInputStream(output.getBytes(ASCII));
+    }
+
+    /**
+     * Stream returning at most one byte per read, like a pipe fed slowly.
+     */
+    private static final class OneByteInputStream extends InputStream {
+        private final InputStream mInput;
+
+        OneByteInputStream(InputStream input) {
+            mInput = input;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return mInput.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return mInput.read(buffer, offset, Math.min(length, 1));
+        }
+    }
+}
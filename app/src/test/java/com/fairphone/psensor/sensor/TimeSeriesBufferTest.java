@@ -0,0 +1,106 @@
+package com.fairphone.psensor.sensor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TimeSeriesBufferTest {
+
+    private static final float DELTA = 0.0001f;
+
+    @Test
+    public void keepsSamplesOldestFirst() {
+        final TimeSeriesBuffer series = new TimeSeriesBuffer(4);
+        add(series, 0, 3);
+
+        assertPoints(series, new float[]{0, 1, 2}, new long[]{0, 10, 20});
+    }
+
+    @Test
+    public void overwritesOldestSamplesOnceFull() {
+        final TimeSeriesBuffer series = new TimeSeriesBuffer(4);
+        add(series, 0, 10);
+
+        assertPoints(series, new float[]{6, 7, 8, 9}, new long[]{60, 70, 80, 90});
+        assertEquals(10, series.getSampleCount());
+    }
+
+    @Test
+    public void keepsFullResolutionHoweverLongSamplesAreAdded() {
+        final TimeSeriesBuffer series = new TimeSeriesBuffer(4);
+        add(series, 0, 100003);
+
+        assertPoints(series, new float[]{99999, 100000, 100001, 100002}, new long[]{999990, 1000000, 1000010, 1000020});
+    }
+
+    @Test
+    public void averagesSamplesPerPoint() {
+        final TimeSeriesBuffer series = new TimeSeriesBuffer(4, 2);
+        add(series, 0, 4);
+
+        assertPoints(series, new float[]{0.5f, 2.5f}, new long[]{0, 20});
+    }
+
+    @Test
+    public void copiesPointBeingFilledLast() {
+        final TimeSeriesBuffer series = new TimeSeriesBuffer(4, 3);
+        add(series, 0, 4);
+
+        assertPoints(series, new float[]{1, 3}, new long[]{0, 30});
+    }
+
+    @Test
+    public void copiesPointBeingFilledInPlaceOfOldestOnceFull() {
+        final TimeSeriesBuffer series = new TimeSeriesBuffer(3, 2);
+        add(series, 0, 7);
+
+        /* Points {0, 1}, {2, 3}, {4, 5} are complete, {6} is being filled */
+        assertPoints(series, new float[]{2.5f, 4.5f, 6}, new long[]{20, 40, 60});
+    }
+
+    @Test
+    public void forgetsSamplesOnClear() {
+        final TimeSeriesBuffer series = new TimeSeriesBuffer(4, 2);
+        add(series, 0, 5);
+        series.clear();
+        add(series, 10, 2);
+
+        assertPoints(series, new float[]{10.5f}, new long[]{100});
+        assertEquals(2, series.getSampleCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacityBelowTwo() {
+        new TimeSeriesBuffer(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoSamplePerPoint() {
+        new TimeSeriesBuffer(4, 0);
+    }
+
+    /**
+     * Add the samples <code>first</code> to <code>first + count - 1</code>, sample <code>i</code> at time
+     * <code>10 * i</code>.
+     */
+    private static void add(TimeSeriesBuffer series, int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            series.add(i, 10L * i);
+        }
+    }
+
+    private static void assertPoints(TimeSeriesBuffer series, float[] expectedValues, long[] expectedTimestamps) {
+        final float[] values = new float[series.getCapacity()];
+        final long[] timestamps = new long[series.getCapacity()];
+        final int size = series.copyTo(values, timestamps);
+
+        assertEquals(expectedValues.length, size);
+        for (int i = 0; i < size; i++) {
+            assertEquals("point " + i, expectedValues[i], values[i], DELTA);
+        }
+        assertArrayEquals(expectedTimestamps, Arrays.copyOf(timestamps, size));
+    }
+}
@@ -0,0 +1,70 @@
+package com.fairphone.psensor.benchmark;
+
+import com.fairphone.psensor.CalibrationEngine;
+import com.fairphone.psensor.ProximitySensorConfiguration;
+import com.fairphone.psensor.sensor.SampleStatistics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calibration math, over a set of generated blocked and non-blocked readings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CalibrationEngineBenchmark {
+
+    /**
+     * Amount of generated cases, a power of 2.
+     */
+    private static final int CASES = 1024;
+    /**
+     * Amount of samples per reading, as read by an adaptive reading.
+     */
+    private static final int SAMPLES = 8;
+
+    private final int[] mBlockedValues = new int[CASES];
+    private final int[] mNonBlockedValues = new int[CASES];
+    private final SampleStatistics mBlockedStatistics = new SampleStatistics(SAMPLES);
+    private final SampleStatistics mNonBlockedStatistics = new SampleStatistics(SAMPLES);
+    private final ProximitySensorConfiguration mPersistedConfiguration = new ProximitySensorConfiguration();
+    private int mCase;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+
+        for (int i = 0; i < CASES; i++) {
+            mBlockedValues[i] = 235 + random.nextInt(21);
+            mNonBlockedValues[i] = random.nextInt(4) == 0 ? 0 : random.nextInt(200);
+        }
+
+        for (int i = 0; i < SAMPLES; i++) {
+            mBlockedStatistics.offer(mBlockedValues[i], i * 100000000L, 0, 255);
+            mNonBlockedStatistics.offer(mNonBlockedValues[i], i * 100000000L, 0, 255);
+        }
+
+        mPersistedConfiguration.offsetCompensation = 3;
+    }
+
+    @Benchmark
+    public CalibrationEngine.Result calibrateValues() {
+        final int i = mCase++ & (CASES - 1);
+
+        return CalibrationEngine.calibrate(mBlockedValues[i], mNonBlockedValues[i], mPersistedConfiguration);
+    }
+
+    @Benchmark
+    public CalibrationEngine.Result calibrateStatistics() {
+        return CalibrationEngine.calibrate(mBlockedStatistics, mNonBlockedStatistics, mPersistedConfiguration);
+    }
+}
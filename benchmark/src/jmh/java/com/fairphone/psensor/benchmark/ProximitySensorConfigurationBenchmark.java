@@ -0,0 +1,102 @@
+package com.fairphone.psensor.benchmark;
+
+import com.fairphone.psensor.ProximitySensorConfiguration;
+import com.fairphone.psensor.SensorRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read and persist paths of the <code>sns.reg</code> calibration file, against a temporary copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProximitySensorConfigurationBenchmark {
+
+    /**
+     * Size of the temporary calibration file, larger than the region holding the values (in bytes).
+     */
+    private static final int CALIBRATION_FILE_SIZE = 0x200;
+
+    private File mCalibrationFile;
+    private File mShadowFile;
+    private ProximitySensorConfiguration mConfiguration;
+    private int mNearThresholdToggle;
+
+    @Setup
+    public void setUp() throws IOException {
+        mCalibrationFile = File.createTempFile("sns", ".reg");
+        mShadowFile = new File(mCalibrationFile.getPath() + ".shadow");
+
+        final FileOutputStream output = new FileOutputStream(mCalibrationFile);
+        try {
+            output.write(new byte[CALIBRATION_FILE_SIZE]);
+        } finally {
+            output.close();
+        }
+
+        mConfiguration = new ProximitySensorConfiguration();
+        mConfiguration.offsetCompensation = 3;
+        mConfiguration.nearThreshold = 220;
+        mConfiguration.farThreshold = 190;
+
+        if (!mConfiguration.persistToMemory(mCalibrationFile, mShadowFile)) {
+            throw new IOException("Could not initialize " + mCalibrationFile);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mCalibrationFile.delete();
+        mShadowFile.delete();
+    }
+
+    @Benchmark
+    public ProximitySensorConfiguration readFromMemory() {
+        return ProximitySensorConfiguration.readFromMemory(mCalibrationFile);
+    }
+
+    @Benchmark
+    public SensorRegistry readRegistry() throws IOException {
+        return SensorRegistry.read(mCalibrationFile);
+    }
+
+    /**
+     * Full transactional persist: shadow copy, write, read back.
+     */
+    @Benchmark
+    public boolean persistToMemory() {
+        return mConfiguration.persistToMemory(mCalibrationFile, mShadowFile);
+    }
+
+    /**
+     * Diff-aware persist of a configuration already in the file: nothing is written.
+     */
+    @Benchmark
+    public int persistChangesToMemoryUnchanged() {
+        return mConfiguration.persistChangesToMemory(mCalibrationFile, mShadowFile);
+    }
+
+    /**
+     * Diff-aware persist of a configuration with one field changed on every call.
+     */
+    @Benchmark
+    public int persistChangesToMemoryOneField() {
+        mNearThresholdToggle ^= 1;
+        mConfiguration.nearThreshold = 220 + mNearThresholdToggle;
+
+        return mConfiguration.persistChangesToMemory(mCalibrationFile, mShadowFile);
+    }
+}
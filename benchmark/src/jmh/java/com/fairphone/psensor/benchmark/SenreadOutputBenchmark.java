@@ -0,0 +1,118 @@
+package com.fairphone.psensor.benchmark;
+
+import com.fairphone.psensor.sensor.SenreadOutput;
+import com.fairphone.psensor.sensor.SenreadOutputParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the <code>senread</code> output: line-based (the former parsing of the app, kept here as a baseline) and
+ * byte-level with {@link SenreadOutputParser}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SenreadOutputBenchmark {
+
+    private static final String RESULT_LINE = SenreadOutput.RESULT_PREFIX + " 42";
+    private static final byte[] OUTPUT = (RESULT_LINE + "\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TERMINATOR = "__END__".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Amount of samples in the streamed output.
+     */
+    private static final int STREAMED_SAMPLES = 64;
+
+    private final SenreadOutputParser mParser = new SenreadOutputParser();
+    private final ByteArrayInputStream mOutput = new ByteArrayInputStream(OUTPUT);
+    private final int[] mValues = new int[STREAMED_SAMPLES];
+    private ByteArrayInputStream mStreamedOutput;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder output = new StringBuilder();
+
+        for (int i = 0; i < STREAMED_SAMPLES; i++) {
+            output.append(SenreadOutput.RESULT_PREFIX).append(' ').append(i).append('\n');
+            output.append("__END__\n");
+        }
+        mStreamedOutput = new ByteArrayInputStream(output.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Parsing of a line already read.
+     */
+    @Benchmark
+    public int parseResultLine() {
+        return parseResultLine(RESULT_LINE);
+    }
+
+    /**
+     * Reading and parsing of the process output, as done for every sample.
+     */
+    @Benchmark
+    public int readAndParseOutput() throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(OUTPUT)));
+
+        return parseResultLine(reader.readLine());
+    }
+
+    /**
+     * Byte-level parsing of the process output, with a reused parser.
+     */
+    @Benchmark
+    public int parseOutput() throws IOException {
+        mOutput.reset();
+        mParser.reset(mOutput);
+        mParser.readResults(mValues);
+
+        return mValues[0];
+    }
+
+    /**
+     * Byte-level parsing of the output of the long-lived reader, {@link #STREAMED_SAMPLES} samples per operation.
+     */
+    @Benchmark
+    public int parseStreamedOutput() throws IOException {
+        int sum = 0;
+
+        mStreamedOutput.reset();
+        mParser.reset(mStreamedOutput);
+        for (int i = 0; i < STREAMED_SAMPLES; i++) {
+            mParser.readResults(mValues, TERMINATOR);
+            sum += mValues[0];
+        }
+
+        return sum;
+    }
+
+    /**
+     * Line-based parsing of a line printed by the reading command, as formerly done by the app.
+     *
+     * @param line The line to parse, may be <code>null</code>.
+     * @return the value following {@link SenreadOutput#RESULT_PREFIX} or <code>-1</code> if the line is not a result.
+     * @throws NumberFormatException if the line is a result but its value is not a number.
+     */
+    private static int parseResultLine(String line) throws NumberFormatException {
+        int value = -1;
+
+        if (line != null && line.startsWith(SenreadOutput.RESULT_PREFIX)) {
+            value = Integer.parseInt(line.replace(SenreadOutput.RESULT_PREFIX, "").trim());
+        }
+
+        return value;
+    }
+}
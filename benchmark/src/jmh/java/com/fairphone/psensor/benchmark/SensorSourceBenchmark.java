@@ -0,0 +1,95 @@
+package com.fairphone.psensor.benchmark;
+
+import com.fairphone.psensor.helpers.ProximitySensorHelper;
+import com.fairphone.psensor.sensor.ReplaySensorSource;
+import com.fairphone.psensor.sensor.SensorSource;
+import com.fairphone.psensor.sensor.SysfsSensorSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sample sources that run on a plain JVM: a recorded trace replayed from memory, as a baseline of the reading loop,
+ * and a kernel node stood in for by a temporary file. Each source is read sample by sample and through
+ * {@link ProximitySensorHelper#readBatch(SensorSource, int[], long[], int, long)} without delay.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SensorSourceBenchmark {
+
+    /**
+     * Amount of samples in the replayed trace.
+     */
+    private static final int TRACE_LENGTH = 1024;
+    /**
+     * Amount of samples in a batch.
+     */
+    private static final int BATCH_SIZE = 16;
+
+    private final int[] mValues = new int[BATCH_SIZE];
+    private final long[] mTimestampsNanos = new long[BATCH_SIZE];
+    private File mNode;
+    private SensorSource mReplaySource;
+    private SensorSource mSysfsSource;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Random random = new Random(42);
+        final int[] trace = new int[TRACE_LENGTH];
+
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            trace[i] = random.nextInt(256);
+        }
+        mReplaySource = new ReplaySensorSource(trace, true);
+
+        mNode = File.createTempFile("proximity", ".raw");
+        final FileOutputStream output = new FileOutputStream(mNode);
+        try {
+            output.write("42\n".getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            output.close();
+        }
+        mSysfsSource = new SysfsSensorSource(mNode);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mReplaySource.release();
+        mSysfsSource.release();
+        mNode.delete();
+    }
+
+    @Benchmark
+    public int readReplaySample() {
+        return mReplaySource.readSample();
+    }
+
+    @Benchmark
+    public int readSysfsSample() {
+        return mSysfsSource.readSample();
+    }
+
+    @Benchmark
+    public int readReplayBatch() {
+        return ProximitySensorHelper.readBatch(mReplaySource, mValues, mTimestampsNanos, BATCH_SIZE, 0);
+    }
+
+    @Benchmark
+    public int readSysfsBatch() {
+        return ProximitySensorHelper.readBatch(mSysfsSource, mValues, mTimestampsNanos, BATCH_SIZE, 0);
+    }
+}
@@ -0,0 +1,24 @@
+package android.os;
+
+/**
+ * Stand-in for the Android clocks, so that the app sources benchmarked run on a plain JVM. <br>
+ * <br>
+ * All the clocks are backed by {@link System#nanoTime()}: they are monotonic, which is all the app relies on.
+ */
+public final class SystemClock {
+
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000;
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return System.nanoTime();
+    }
+}
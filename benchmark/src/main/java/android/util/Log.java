@@ -0,0 +1,74 @@
+package android.util;
+
+/**
+ * Stand-in for the Android logger, so that the app sources benchmarked run on a plain JVM. <br>
+ * <br>
+ * Debug and info messages are dropped so that they do not skew the measurements; warnings and errors are printed to
+ * the standard error.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return print("W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return print("W", tag, msg, tr);
+    }
+
+    public static int w(String tag, Throwable tr) {
+        return print("W", tag, null, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return print("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return print("E", tag, msg, tr);
+    }
+
+    public static int wtf(String tag, String msg) {
+        return print("A", tag, msg, null);
+    }
+
+    public static int wtf(String tag, Throwable tr) {
+        return print("A", tag, null, tr);
+    }
+
+    public static int wtf(String tag, String msg, Throwable tr) {
+        return print("A", tag, msg, tr);
+    }
+
+    private static int print(String priority, String tag, String msg, Throwable tr) {
+        System.err.println(priority + "/" + tag + ": " + (msg != null ? msg : ""));
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+
+        return 0;
+    }
+}